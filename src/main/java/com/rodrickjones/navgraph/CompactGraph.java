@@ -0,0 +1,366 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Immutable {@link IndexedGraph} storing its adjacency as compressed sparse rows in heap arrays.
+ * {@link Vertex} and {@link Edge} instances are only created when requested through the {@link Graph} methods.
+ */
+@Slf4j
+public class CompactGraph implements IndexedGraph {
+    private final int[] vertexIds;
+    private final int[] edgeOffsets;
+    private final int[] edgeDestinations;
+    private final float[] edgeCosts;
+    private final int[] edgeRequirements;
+    private final Requirement[] requirements;
+    private final Map<Integer, Edge> specialEdges;
+    private volatile int[] incomingOffsets;
+    private int[] incomingOrigins;
+    private int[] incomingEdges;
+
+    public CompactGraph(Graph graph) {
+        this(builderOf(graph));
+    }
+
+    private CompactGraph(Builder builder) {
+        int[] sortedIds = Arrays.copyOf(builder.vertexIds, builder.vertexCount);
+        Arrays.sort(sortedIds);
+        int vertexCount = 0;
+        for (int i = 0; i < sortedIds.length; i++) {
+            if (i == 0 || sortedIds[i] != sortedIds[i - 1]) {
+                sortedIds[vertexCount++] = sortedIds[i];
+            }
+        }
+        vertexIds = Arrays.copyOf(sortedIds, vertexCount);
+
+        int[] edgeOrigins = new int[builder.edgeCount];
+        int[] edgeCounts = new int[vertexCount + 1];
+        int invalidEdges = 0;
+        for (int i = 0; i < builder.edgeCount; i++) {
+            int origin = Arrays.binarySearch(vertexIds, builder.edgeOrigins[i]);
+            if (origin < 0 || Arrays.binarySearch(vertexIds, builder.edgeDestinations[i]) < 0) {
+                edgeOrigins[i] = -1;
+                invalidEdges++;
+                continue;
+            }
+            edgeOrigins[i] = origin;
+            edgeCounts[origin + 1]++;
+        }
+        edgeOffsets = new int[vertexCount + 1];
+        for (int i = 0; i < vertexCount; i++) {
+            edgeOffsets[i + 1] = edgeOffsets[i] + edgeCounts[i + 1];
+        }
+
+        int edgeCount = builder.edgeCount - invalidEdges;
+        edgeDestinations = new int[edgeCount];
+        edgeCosts = new float[edgeCount];
+        edgeRequirements = new int[edgeCount];
+        specialEdges = new HashMap<>();
+        int[] next = Arrays.copyOf(edgeOffsets, vertexCount);
+        for (int i = 0; i < builder.edgeCount; i++) {
+            int origin = edgeOrigins[i];
+            if (origin < 0) {
+                continue;
+            }
+            int edge = next[origin]++;
+            edgeDestinations[edge] = Arrays.binarySearch(vertexIds, builder.edgeDestinations[i]);
+            edgeCosts[edge] = builder.edgeCosts[i];
+            edgeRequirements[edge] = builder.edgeRequirements[i];
+            Edge special = builder.specialEdges.get(i);
+            if (special != null) {
+                specialEdges.put(edge, special);
+            }
+        }
+        requirements = builder.requirements.toArray(new Requirement[0]);
+        if (invalidEdges > 0) {
+            log.info(invalidEdges + " invalid edges removed");
+        }
+    }
+
+    private static Builder builderOf(Graph graph) {
+        Builder builder = new Builder(graph.getVertexCount(), graph.getEdgeCount());
+        for (Vertex vertex : graph.getVertices()) {
+            builder.addVertex(vertex.hashCode());
+            Collection<Edge> edges = graph.getEdges(vertex);
+            if (edges != null) {
+                for (Edge edge : edges) {
+                    builder.addEdge(edge);
+                }
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * @return the dense index of the vertex with the given packed id, or a negative value if it is not in this graph
+     */
+    public int indexOf(int vertexId) {
+        int index = Arrays.binarySearch(vertexIds, vertexId);
+        return index < 0 ? -1 : index;
+    }
+
+    public int getVertexId(int index) {
+        return vertexIds[index];
+    }
+
+    public int getEdgeStart(int index) {
+        return edgeOffsets[index];
+    }
+
+    public int getEdgeEnd(int index) {
+        return edgeOffsets[index + 1];
+    }
+
+    public int getEdgeDestination(int edge) {
+        return edgeDestinations[edge];
+    }
+
+    public float getEdgeCost(int edge) {
+        return edgeCosts[edge];
+    }
+
+    /**
+     * @return the id of the edge's {@link Requirement}, or {@link #NO_REQUIREMENT}
+     */
+    public int getEdgeRequirementId(int edge) {
+        return edgeRequirements[edge];
+    }
+
+    public Requirement getRequirement(int requirementId) {
+        return requirements[requirementId];
+    }
+
+    public int getRequirementCount() {
+        return requirements.length;
+    }
+
+    /**
+     * @return true if the edge is not a {@link BasicEdge} and is kept as its original instance
+     */
+    public boolean isSpecialEdge(int edge) {
+        return !specialEdges.isEmpty() && specialEdges.containsKey(edge);
+    }
+
+    public Edge getEdge(int originIndex, int edge) {
+        if (!specialEdges.isEmpty()) {
+            Edge special = specialEdges.get(edge);
+            if (special != null) {
+                return special;
+            }
+        }
+        return new BasicEdge(getVertexAt(originIndex), getVertexAt(edgeDestinations[edge]), edgeCosts[edge],
+                getEdgeRequirement(edge));
+    }
+
+    /**
+     * Builds the reverse rows used by {@link #getIncomingEdges(Vertex)} and the incoming edge accessors.
+     */
+    public synchronized void indexIncomingEdges() {
+        if (incomingOffsets != null) {
+            return;
+        }
+        int vertexCount = vertexIds.length;
+        int[] offsets = new int[vertexCount + 1];
+        for (int destination : edgeDestinations) {
+            offsets[destination + 1]++;
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] origins = new int[edgeDestinations.length];
+        int[] edges = new int[edgeDestinations.length];
+        int[] next = Arrays.copyOf(offsets, vertexCount);
+        for (int origin = 0; origin < vertexCount; origin++) {
+            for (int edge = edgeOffsets[origin]; edge < edgeOffsets[origin + 1]; edge++) {
+                int slot = next[edgeDestinations[edge]]++;
+                origins[slot] = origin;
+                edges[slot] = edge;
+            }
+        }
+        incomingOrigins = origins;
+        incomingEdges = edges;
+        incomingOffsets = offsets;
+    }
+
+    public boolean hasIncomingEdgeIndex() {
+        return incomingOffsets != null;
+    }
+
+    public int getIncomingStart(int index) {
+        return incomingOffsets[index];
+    }
+
+    public int getIncomingEnd(int index) {
+        return incomingOffsets[index + 1];
+    }
+
+    /**
+     * @return the origin index of the incoming edge in the given reverse slot
+     */
+    public int getIncomingOrigin(int slot) {
+        return incomingOrigins[slot];
+    }
+
+    /**
+     * @return the edge index of the incoming edge in the given reverse slot
+     */
+    public int getIncomingEdge(int slot) {
+        return incomingEdges[slot];
+    }
+
+    @Override
+    public void addVertex(Vertex vertex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void addVertices(Collection<Vertex> vertices) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexIds.length;
+    }
+
+    @Override
+    public Collection<Edge> getIncomingEdges(Vertex vertex) {
+        if (incomingOffsets == null) {
+            throw new IllegalStateException("Incoming edges are not indexed, call indexIncomingEdges() first");
+        }
+        int index = indexOf(vertex);
+        if (index < 0) {
+            return null;
+        }
+        int start = incomingOffsets[index];
+        int end = incomingOffsets[index + 1];
+        List<Edge> edges = new ArrayList<>(end - start);
+        for (int slot = start; slot < end; slot++) {
+            edges.add(getEdge(incomingOrigins[slot], incomingEdges[slot]));
+        }
+        return edges;
+    }
+
+    @Override
+    public void addEdge(Edge edge) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void addEdges(Collection<Edge> edges) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void removeEdge(Edge edge) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public Collection<Edge> removeVertex(Vertex vertex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public int getEdgeCount() {
+        return edgeDestinations.length;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactGraph{" +
+                "vertices=" + getVertexCount() +
+                ", edges=" + getEdgeCount() +
+                ", requirements=" + requirements.length +
+                '}';
+    }
+
+    /**
+     * Accumulates vertices and edges in flat arrays and freezes them into a {@link CompactGraph}.
+     * Input is trusted, duplicate and conflicting edges are not checked for.
+     * Edges referencing unknown vertices are dropped by {@link #build()}.
+     */
+    public static class Builder {
+        private int[] vertexIds;
+        private int vertexCount;
+        private int[] edgeOrigins;
+        private int[] edgeDestinations;
+        private float[] edgeCosts;
+        private int[] edgeRequirements;
+        private int edgeCount;
+        private final List<Requirement> requirements = new ArrayList<>();
+        //Structurally equal requirements share an id, even when they were not interned
+        private final Map<Requirement, Integer> requirementIds = new HashMap<>();
+        private final Map<Integer, Edge> specialEdges = new HashMap<>();
+
+        public Builder() {
+            this(1024, 4096);
+        }
+
+        public Builder(int initialVertexCapacity, int initialEdgeCapacity) {
+            vertexIds = new int[Math.max(initialVertexCapacity, 16)];
+            int edgeCapacity = Math.max(initialEdgeCapacity, 16);
+            edgeOrigins = new int[edgeCapacity];
+            edgeDestinations = new int[edgeCapacity];
+            edgeCosts = new float[edgeCapacity];
+            edgeRequirements = new int[edgeCapacity];
+        }
+
+        public Builder addVertex(int vertexId) {
+            if (vertexCount == vertexIds.length) {
+                vertexIds = Arrays.copyOf(vertexIds, vertexCount * 2);
+            }
+            vertexIds[vertexCount++] = vertexId;
+            return this;
+        }
+
+        public Builder addVertex(Vertex vertex) {
+            return addVertex(vertex.hashCode());
+        }
+
+        public Builder addEdge(Edge edge) {
+            addEdge(edge.getOrigin().hashCode(), edge.getDestination().hashCode(), edge.getCost(), edge.getRequirement());
+            if (edge.getType() != BasicEdge.TYPE) {
+                specialEdges.put(edgeCount - 1, edge);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a {@link BasicEdge} between the vertex ids without creating it.
+         */
+        public Builder addEdge(int originId, int destinationId, float cost, Requirement requirement) {
+            if (edgeCount == edgeOrigins.length) {
+                int capacity = edgeCount * 2;
+                edgeOrigins = Arrays.copyOf(edgeOrigins, capacity);
+                edgeDestinations = Arrays.copyOf(edgeDestinations, capacity);
+                edgeCosts = Arrays.copyOf(edgeCosts, capacity);
+                edgeRequirements = Arrays.copyOf(edgeRequirements, capacity);
+            }
+            edgeOrigins[edgeCount] = originId;
+            edgeDestinations[edgeCount] = destinationId;
+            edgeCosts[edgeCount] = cost;
+            if (requirement == null) {
+                edgeRequirements[edgeCount] = NO_REQUIREMENT;
+            } else {
+                edgeRequirements[edgeCount] = requirementIds.computeIfAbsent(requirement, r -> {
+                    requirements.add(r);
+                    return requirements.size() - 1;
+                });
+            }
+            edgeCount++;
+            return this;
+        }
+
+        public CompactGraph build() {
+            return new CompactGraph(this);
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.util.IndexedMinHeap;
+import com.rodrickjones.navgraph.util.IntList;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy over a {@link CompactGraph}.
+ * Vertices are contracted in order of importance, adding shortcut edges that preserve shortest path costs
+ * between the remaining vertices. Edges are then split into upward rows, walked by the forward search, and
+ * downward rows keyed by their lower endpoint, walked by the backward search.
+ * <p>
+ * Edges with a {@link com.rodrickjones.navgraph.requirements.Requirement} are left out of contraction: their
+ * endpoints form an uncontracted core, and the core edges are present in both directions so the query can
+ * evaluate requirements against its own context.
+ */
+@Slf4j
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x4e474348;
+    private static final int VERSION = 1;
+    public static final int DEFAULT_SETTLE_LIMIT = 500;
+
+    private final int vertexCount;
+    private final int baseEdgeCount;
+    private final int coreSize;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final float[] edgeCosts;
+    private final int[] edgeOriginals;
+    private final int[] edgeLower;
+    private final int[] edgeUpper;
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    private final int[] downOffsets;
+    private final int[] downEdges;
+
+    private ContractionHierarchy(int vertexCount, int baseEdgeCount, int coreSize,
+                                 int[] edgeFrom, int[] edgeTo, float[] edgeCosts,
+                                 int[] edgeOriginals, int[] edgeLower, int[] edgeUpper,
+                                 int[] upOffsets, int[] upEdges, int[] downOffsets, int[] downEdges) {
+        this.vertexCount = vertexCount;
+        this.baseEdgeCount = baseEdgeCount;
+        this.coreSize = coreSize;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeCosts = edgeCosts;
+        this.edgeOriginals = edgeOriginals;
+        this.edgeLower = edgeLower;
+        this.edgeUpper = edgeUpper;
+        this.upOffsets = upOffsets;
+        this.upEdges = upEdges;
+        this.downOffsets = downOffsets;
+        this.downEdges = downEdges;
+    }
+
+    public static ContractionHierarchy build(CompactGraph graph) {
+        return build(graph, DEFAULT_SETTLE_LIMIT);
+    }
+
+    /**
+     * @param settleLimit the number of vertices a witness search may settle before a shortcut is added regardless
+     */
+    public static ContractionHierarchy build(CompactGraph graph, int settleLimit) {
+        long start = System.currentTimeMillis();
+        ContractionHierarchy hierarchy = new Contractor(graph, settleLimit).contract();
+        log.info("Contracted in {}ms: {}", System.currentTimeMillis() - start, hierarchy);
+        return hierarchy;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeFrom.length;
+    }
+
+    public int getCoreSize() {
+        return coreSize;
+    }
+
+    public int getUpStart(int vertex) {
+        return upOffsets[vertex];
+    }
+
+    public int getUpEnd(int vertex) {
+        return upOffsets[vertex + 1];
+    }
+
+    public int getUpEdge(int slot) {
+        return upEdges[slot];
+    }
+
+    public int getDownStart(int vertex) {
+        return downOffsets[vertex];
+    }
+
+    public int getDownEnd(int vertex) {
+        return downOffsets[vertex + 1];
+    }
+
+    public int getDownEdge(int slot) {
+        return downEdges[slot];
+    }
+
+    public int getEdgeFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    public int getEdgeTo(int edge) {
+        return edgeTo[edge];
+    }
+
+    public float getEdgeCost(int edge) {
+        return edgeCosts[edge];
+    }
+
+    /**
+     * @return the index of the {@link CompactGraph} edge this edge represents, or -1 for shortcuts
+     */
+    public int getOriginalEdge(int edge) {
+        return edgeOriginals[edge];
+    }
+
+    public boolean isShortcut(int edge) {
+        return edgeOriginals[edge] < 0;
+    }
+
+    /**
+     * Appends the hierarchy edges the given edge expands to, in path order, all of which are original edges.
+     */
+    public void unpack(int edge, IntList originals) {
+        IntList stack = new IntList();
+        stack.add(edge);
+        while (!stack.isEmpty()) {
+            int current = stack.get(stack.size() - 1);
+            stack.removeSwap(stack.size() - 1);
+            if (edgeOriginals[current] >= 0) {
+                originals.add(current);
+            } else {
+                stack.add(edgeUpper[current]);
+                stack.add(edgeLower[current]);
+            }
+        }
+    }
+
+    public void writeToFile(File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(vertexCount);
+            dos.writeInt(baseEdgeCount);
+            dos.writeInt(coreSize);
+            int edgeCount = edgeFrom.length;
+            dos.writeInt(edgeCount);
+            for (int i = 0; i < edgeCount; i++) {
+                dos.writeInt(edgeFrom[i]);
+                dos.writeInt(edgeTo[i]);
+                dos.writeFloat(edgeCosts[i]);
+                dos.writeInt(edgeOriginals[i]);
+                dos.writeInt(edgeLower[i]);
+                dos.writeInt(edgeUpper[i]);
+            }
+            writeInts(dos, upOffsets);
+            writeInts(dos, upEdges);
+            writeInts(dos, downOffsets);
+            writeInts(dos, downEdges);
+        }
+    }
+
+    public static ContractionHierarchy readFromFile(File file, CompactGraph graph) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IllegalStateException(file + " is not a contraction hierarchy");
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IllegalStateException("Version mismatch: File=" + version + ", ContractionHierarchy=" + VERSION);
+            }
+            int vertexCount = dis.readInt();
+            int baseEdgeCount = dis.readInt();
+            if (vertexCount != graph.getVertexCount() || baseEdgeCount != graph.getEdgeCount()) {
+                throw new IllegalStateException("Contraction hierarchy does not match " + graph);
+            }
+            int coreSize = dis.readInt();
+            int edgeCount = dis.readInt();
+            int[] edgeFrom = new int[edgeCount];
+            int[] edgeTo = new int[edgeCount];
+            float[] edgeCosts = new float[edgeCount];
+            int[] edgeOriginals = new int[edgeCount];
+            int[] edgeLower = new int[edgeCount];
+            int[] edgeUpper = new int[edgeCount];
+            for (int i = 0; i < edgeCount; i++) {
+                edgeFrom[i] = dis.readInt();
+                edgeTo[i] = dis.readInt();
+                edgeCosts[i] = dis.readFloat();
+                edgeOriginals[i] = dis.readInt();
+                edgeLower[i] = dis.readInt();
+                edgeUpper[i] = dis.readInt();
+            }
+            return new ContractionHierarchy(vertexCount, baseEdgeCount, coreSize, edgeFrom, edgeTo, edgeCosts,
+                    edgeOriginals, edgeLower, edgeUpper, readInts(dis), readInts(dis), readInts(dis), readInts(dis));
+        }
+    }
+
+    private static void writeInts(DataOutputStream dos, int[] values) throws IOException {
+        dos.writeInt(values.length);
+        for (int value : values) {
+            dos.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream dis) throws IOException {
+        int[] values = new int[dis.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = dis.readInt();
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "ContractionHierarchy{" +
+                "vertices=" + vertexCount +
+                ", edges=" + edgeFrom.length +
+                ", shortcuts=" + (edgeFrom.length - baseEdgeCount) +
+                ", core=" + coreSize +
+                '}';
+    }
+
+    private static class Contractor {
+        private final CompactGraph graph;
+        private final int vertexCount;
+        private final int settleLimit;
+        private final IntList[] outgoing;
+        private final IntList[] incoming;
+        private final boolean[] core;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbours;
+
+        private int[] from;
+        private int[] to;
+        private float[] costs;
+        private int[] originals;
+        private int[] lower;
+        private int[] upper;
+        private int edgeCount;
+
+        private final double[] distances;
+        private final int[] stamps;
+        private final IndexedMinHeap witnessFrontier;
+        private int generation;
+
+        Contractor(CompactGraph graph, int settleLimit) {
+            this.graph = graph;
+            this.vertexCount = graph.getVertexCount();
+            this.settleLimit = settleLimit;
+            outgoing = new IntList[vertexCount];
+            incoming = new IntList[vertexCount];
+            core = new boolean[vertexCount];
+            contracted = new boolean[vertexCount];
+            contractedNeighbours = new int[vertexCount];
+            int capacity = Math.max(graph.getEdgeCount() * 2, 16);
+            from = new int[capacity];
+            to = new int[capacity];
+            costs = new float[capacity];
+            originals = new int[capacity];
+            lower = new int[capacity];
+            upper = new int[capacity];
+            distances = new double[vertexCount];
+            stamps = new int[vertexCount];
+            witnessFrontier = new IndexedMinHeap(vertexCount);
+
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                outgoing[vertex] = new IntList(4);
+                incoming[vertex] = new IntList(4);
+            }
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                for (int edge = graph.getEdgeStart(vertex); edge < graph.getEdgeEnd(vertex); edge++) {
+                    int destination = graph.getEdgeDestination(edge);
+                    if (destination == vertex) {
+                        continue;
+                    }
+                    int id = addEdge(vertex, destination, graph.getEdgeCost(edge), edge, -1, -1);
+                    if (graph.getEdgeRequirementId(edge) != CompactGraph.NO_REQUIREMENT) {
+                        core[vertex] = true;
+                        core[destination] = true;
+                    } else {
+                        outgoing[vertex].add(id);
+                        incoming[destination].add(id);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy contract() {
+            int[] ranks = new int[vertexCount];
+            int rank = 0;
+            IndexedMinHeap queue = new IndexedMinHeap(vertexCount);
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                if (!core[vertex]) {
+                    queue.offer(vertex, priority(vertex));
+                }
+            }
+            while (!queue.isEmpty()) {
+                int vertex = queue.poll();
+                //Lazy update, priorities go stale as neighbours are contracted
+                double priority = priority(vertex);
+                if (!queue.isEmpty() && priority > queue.peekKey()) {
+                    queue.offer(vertex, priority);
+                    continue;
+                }
+                contractVertex(vertex);
+                ranks[vertex] = rank++;
+            }
+            int coreSize = vertexCount - rank;
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                if (core[vertex]) {
+                    ranks[vertex] = rank++;
+                }
+            }
+            return link(ranks, coreSize);
+        }
+
+        private ContractionHierarchy link(int[] ranks, int coreSize) {
+            int[] upOffsets = new int[vertexCount + 1];
+            int[] downOffsets = new int[vertexCount + 1];
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int origin = from[edge];
+                int destination = to[edge];
+                if (core[origin] && core[destination]) {
+                    upOffsets[origin + 1]++;
+                    downOffsets[destination + 1]++;
+                } else if (ranks[origin] < ranks[destination]) {
+                    upOffsets[origin + 1]++;
+                } else {
+                    downOffsets[destination + 1]++;
+                }
+            }
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                upOffsets[vertex + 1] += upOffsets[vertex];
+                downOffsets[vertex + 1] += downOffsets[vertex];
+            }
+            int[] upEdges = new int[upOffsets[vertexCount]];
+            int[] downEdges = new int[downOffsets[vertexCount]];
+            int[] nextUp = Arrays.copyOf(upOffsets, vertexCount);
+            int[] nextDown = Arrays.copyOf(downOffsets, vertexCount);
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int origin = from[edge];
+                int destination = to[edge];
+                if (core[origin] && core[destination]) {
+                    upEdges[nextUp[origin]++] = edge;
+                    downEdges[nextDown[destination]++] = edge;
+                } else if (ranks[origin] < ranks[destination]) {
+                    upEdges[nextUp[origin]++] = edge;
+                } else {
+                    downEdges[nextDown[destination]++] = edge;
+                }
+            }
+            return new ContractionHierarchy(vertexCount, graph.getEdgeCount(), coreSize,
+                    Arrays.copyOf(from, edgeCount), Arrays.copyOf(to, edgeCount), Arrays.copyOf(costs, edgeCount),
+                    Arrays.copyOf(originals, edgeCount), Arrays.copyOf(lower, edgeCount), Arrays.copyOf(upper, edgeCount),
+                    upOffsets, upEdges, downOffsets, downEdges);
+        }
+
+        private double priority(int vertex) {
+            int shortcuts = processShortcuts(vertex, false);
+            int degree = incoming[vertex].size() + outgoing[vertex].size();
+            return shortcuts - degree + contractedNeighbours[vertex];
+        }
+
+        private void contractVertex(int vertex) {
+            processShortcuts(vertex, true);
+            contracted[vertex] = true;
+            IntList in = incoming[vertex];
+            for (int i = 0; i < in.size(); i++) {
+                int neighbour = from[in.get(i)];
+                removeEdges(outgoing[neighbour], vertex, true);
+                contractedNeighbours[neighbour]++;
+            }
+            IntList out = outgoing[vertex];
+            for (int i = 0; i < out.size(); i++) {
+                int neighbour = to[out.get(i)];
+                removeEdges(incoming[neighbour], vertex, false);
+                contractedNeighbours[neighbour]++;
+            }
+            incoming[vertex] = null;
+            outgoing[vertex] = null;
+        }
+
+        /**
+         * Finds the shortcuts needed to bypass the vertex, adding them if requested.
+         * @return the number of shortcuts needed
+         */
+        private int processShortcuts(int vertex, boolean add) {
+            IntList in = incoming[vertex];
+            IntList out = outgoing[vertex];
+            if (in.isEmpty() || out.isEmpty()) {
+                return 0;
+            }
+            double maxOut = 0;
+            for (int i = 0; i < out.size(); i++) {
+                maxOut = Math.max(maxOut, costs[out.get(i)]);
+            }
+            int shortcuts = 0;
+            for (int i = 0; i < in.size(); i++) {
+                int inEdge = in.get(i);
+                int origin = from[inEdge];
+                witnessSearch(origin, vertex, costs[inEdge] + maxOut);
+                for (int j = 0; j < out.size(); j++) {
+                    int outEdge = out.get(j);
+                    int destination = to[outEdge];
+                    if (destination == origin) {
+                        continue;
+                    }
+                    double cost = costs[inEdge] + costs[outEdge];
+                    if (stamps[destination] == generation && distances[destination] <= cost) {
+                        continue;
+                    }
+                    shortcuts++;
+                    if (add) {
+                        addShortcut(origin, destination, (float) cost, inEdge, outEdge);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Bounded Dijkstra from the source over the remaining graph, avoiding the vertex being contracted.
+         */
+        private void witnessSearch(int source, int ignored, double maxCost) {
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                generation = 1;
+            }
+            witnessFrontier.clear();
+            stamps[source] = generation;
+            distances[source] = 0;
+            witnessFrontier.offer(source, 0);
+            int settled = 0;
+            while (!witnessFrontier.isEmpty()) {
+                int current = witnessFrontier.poll();
+                double distance = distances[current];
+                if (distance > maxCost || ++settled > settleLimit) {
+                    break;
+                }
+                IntList out = outgoing[current];
+                for (int i = 0; i < out.size(); i++) {
+                    int edge = out.get(i);
+                    int neighbour = to[edge];
+                    if (neighbour == ignored) {
+                        continue;
+                    }
+                    double cost = distance + costs[edge];
+                    if (stamps[neighbour] != generation || cost < distances[neighbour]) {
+                        stamps[neighbour] = generation;
+                        distances[neighbour] = cost;
+                        witnessFrontier.offer(neighbour, cost);
+                    }
+                }
+            }
+            witnessFrontier.clear();
+        }
+
+        private void addShortcut(int origin, int destination, float cost, int lowerEdge, int upperEdge) {
+            IntList out = outgoing[origin];
+            for (int i = 0; i < out.size(); i++) {
+                int edge = out.get(i);
+                if (to[edge] == destination) {
+                    if (costs[edge] <= cost) {
+                        return;
+                    }
+                    //The superseded edge stays in the hierarchy, it is just no longer contracted over
+                    out.removeSwap(i);
+                    removeEdges(incoming[destination], origin, false);
+                    break;
+                }
+            }
+            int id = addEdge(origin, destination, cost, -1, lowerEdge, upperEdge);
+            outgoing[origin].add(id);
+            incoming[destination].add(id);
+        }
+
+        private void removeEdges(IntList edges, int vertex, boolean byDestination) {
+            for (int i = edges.size() - 1; i >= 0; i--) {
+                int edge = edges.get(i);
+                if ((byDestination ? to[edge] : from[edge]) == vertex) {
+                    edges.removeSwap(i);
+                }
+            }
+        }
+
+        private int addEdge(int origin, int destination, float cost, int original, int lowerEdge, int upperEdge) {
+            if (edgeCount == from.length) {
+                int capacity = edgeCount * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                costs = Arrays.copyOf(costs, capacity);
+                originals = Arrays.copyOf(originals, capacity);
+                lower = Arrays.copyOf(lower, capacity);
+                upper = Arrays.copyOf(upper, capacity);
+            }
+            from[edgeCount] = origin;
+            to[edgeCount] = destination;
+            costs[edgeCount] = cost;
+            originals[edgeCount] = original;
+            lower[edgeCount] = lowerEdge;
+            upper[edgeCount] = upperEdge;
+            return edgeCount++;
+        }
+    }
+}
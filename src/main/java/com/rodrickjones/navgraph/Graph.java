@@ -34,9 +34,29 @@ public interface Graph {
 
     Collection<Edge> getEdges(Vertex vertex);
 
+    /**
+     * @return the edges whose destination is the given vertex, only available once the graph has a reverse edge index
+     */
+    default Collection<Edge> getIncomingEdges(Vertex vertex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not index incoming edges");
+    }
+
     void addEdge(Edge edge);
 
     void addEdges(Collection<Edge> edges);
 
+    /**
+     * Removes the edge between the edge's origin and destination.
+     * @throws IllegalStateException if there is no such edge
+     */
+    void removeEdge(Edge edge);
+
+    /**
+     * Removes the vertex along with every edge leaving or entering it.
+     * @return the edges that were removed with it
+     * @throws IllegalStateException if the vertex is not part of the graph
+     */
+    Collection<Edge> removeVertex(Vertex vertex);
+
     int getEdgeCount();
 }
@@ -0,0 +1,219 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.edges.EdgeReader;
+import com.rodrickjones.navgraph.requirements.RequirementReader;
+import com.rodrickjones.navgraph.vertices.Vertex;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Vertices and edges to remove from and add to a graph, so a changed area can be shipped and applied without
+ * rewriting the whole graph.
+ * <p>
+ * Layout: {@code MAGIC, VERSION}, then the removed edges, removed vertices, added vertices and added edges, each
+ * as a count followed by vertex ids or serialized edges.
+ */
+public class GraphPatch {
+    private static final int MAGIC = 0x4e475050;
+    private static final int VERSION = 1;
+
+    private final List<Edge> removedEdges = new ArrayList<>();
+    private final List<Vertex> removedVertices = new ArrayList<>();
+    private final List<Vertex> addedVertices = new ArrayList<>();
+    private final List<Edge> addedEdges = new ArrayList<>();
+
+    public GraphPatch removeEdge(Edge edge) {
+        removedEdges.add(edge);
+        return this;
+    }
+
+    /**
+     * The vertex's own edges and the edges entering it are removed along with it.
+     */
+    public GraphPatch removeVertex(Vertex vertex) {
+        removedVertices.add(vertex);
+        return this;
+    }
+
+    public GraphPatch addVertex(Vertex vertex) {
+        addedVertices.add(vertex);
+        return this;
+    }
+
+    public GraphPatch addEdge(Edge edge) {
+        addedEdges.add(edge);
+        return this;
+    }
+
+    /**
+     * @return a patch turning the first graph into the second, where an edge whose cost, type or requirement
+     * changed is removed and added again
+     */
+    public static GraphPatch diff(Graph from, Graph to) {
+        GraphPatch patch = new GraphPatch();
+        for (Vertex vertex : from.getVertices()) {
+            if (to.getVertex(vertex.getX(), vertex.getY(), vertex.getZ()) == null) {
+                patch.removeVertex(vertex);
+            }
+        }
+        for (Vertex vertex : to.getVertices()) {
+            if (from.getVertex(vertex.getX(), vertex.getY(), vertex.getZ()) == null) {
+                patch.addVertex(vertex);
+                Collection<Edge> edges = to.getEdges(vertex);
+                if (edges != null) {
+                    patch.addedEdges.addAll(edges);
+                }
+                continue;
+            }
+            Collection<Edge> before = from.getEdges(vertex);
+            Collection<Edge> after = to.getEdges(vertex);
+            Map<Vertex, Edge> previous = new HashMap<>();
+            if (before != null) {
+                for (Edge edge : before) {
+                    previous.put(edge.getDestination(), edge);
+                }
+            }
+            if (after != null) {
+                for (Edge edge : after) {
+                    Edge old = previous.remove(edge.getDestination());
+                    if (old == null) {
+                        patch.addEdge(edge);
+                    } else if (!isSame(old, edge)) {
+                        patch.removeEdge(old);
+                        patch.addEdge(edge);
+                    }
+                }
+            }
+            for (Edge edge : previous.values()) {
+                //Edges into removed vertices leave with them
+                Vertex destination = edge.getDestination();
+                if (to.getVertex(destination.getX(), destination.getY(), destination.getZ()) != null) {
+                    patch.removeEdge(edge);
+                }
+            }
+        }
+        return patch;
+    }
+
+    private static boolean isSame(Edge a, Edge b) {
+        return a.getType() == b.getType() && a.getCost() == b.getCost() && Objects.equals(a.getRequirement(), b.getRequirement());
+    }
+
+    /**
+     * Removes edges, then vertices, then adds vertices, then edges.
+     * @return the ids of every region whose vertices or outgoing edges changed, including edges removed along with
+     * a vertex, for {@link HierarchicalGraph#recompile(Collection, java.util.concurrent.ForkJoinPool)}
+     */
+    public Set<Integer> apply(Graph graph) {
+        Set<Integer> touched = new HashSet<>();
+        for (Edge edge : removedEdges) {
+            graph.removeEdge(edge);
+            touched.add(HierarchicalGraph.getRegionId(edge.getOrigin()));
+        }
+        for (Vertex vertex : removedVertices) {
+            for (Edge edge : graph.removeVertex(vertex)) {
+                touched.add(HierarchicalGraph.getRegionId(edge.getOrigin()));
+            }
+            touched.add(HierarchicalGraph.getRegionId(vertex));
+        }
+        for (Vertex vertex : addedVertices) {
+            graph.addVertex(vertex);
+            touched.add(HierarchicalGraph.getRegionId(vertex));
+        }
+        for (Edge edge : addedEdges) {
+            graph.addEdge(edge);
+            touched.add(HierarchicalGraph.getRegionId(edge.getOrigin()));
+        }
+        return touched;
+    }
+
+    public boolean isEmpty() {
+        return removedEdges.isEmpty() && removedVertices.isEmpty() && addedVertices.isEmpty() && addedEdges.isEmpty();
+    }
+
+    public List<Edge> getRemovedEdges() {
+        return removedEdges;
+    }
+
+    public List<Vertex> getRemovedVertices() {
+        return removedVertices;
+    }
+
+    public List<Vertex> getAddedVertices() {
+        return addedVertices;
+    }
+
+    public List<Edge> getAddedEdges() {
+        return addedEdges;
+    }
+
+    public void writeToFile(File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            writeEdges(dos, removedEdges);
+            writeVertices(dos, removedVertices);
+            writeVertices(dos, addedVertices);
+            writeEdges(dos, addedEdges);
+        }
+    }
+
+    private static void writeVertices(DataOutputStream dos, List<Vertex> vertices) throws IOException {
+        dos.writeInt(vertices.size());
+        for (Vertex vertex : vertices) {
+            dos.writeInt(vertex.hashCode());
+        }
+    }
+
+    private static void writeEdges(DataOutputStream dos, List<Edge> edges) throws IOException {
+        dos.writeInt(edges.size());
+        for (Edge edge : edges) {
+            edge.writeToDataStream(dos);
+        }
+    }
+
+    public static GraphPatch readFromFile(File file, EdgeReader edgeReader, RequirementReader requirementReader) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IllegalStateException(file + " is not a graph patch");
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IllegalStateException("Version mismatch: File=" + version + ", GraphPatch=" + VERSION);
+            }
+            GraphPatch patch = new GraphPatch();
+            readEdges(dis, patch.removedEdges, edgeReader, requirementReader);
+            readVertices(dis, patch.removedVertices);
+            readVertices(dis, patch.addedVertices);
+            readEdges(dis, patch.addedEdges, edgeReader, requirementReader);
+            return patch;
+        }
+    }
+
+    private static void readVertices(DataInputStream dis, List<Vertex> vertices) throws IOException {
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            vertices.add(new Vertex(dis.readInt()));
+        }
+    }
+
+    private static void readEdges(DataInputStream dis, List<Edge> edges, EdgeReader edgeReader,
+                                  RequirementReader requirementReader) throws IOException {
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            edges.add(edgeReader.readEdge(dis, requirementReader));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GraphPatch{" +
+                "removedEdges=" + removedEdges.size() +
+                ", removedVertices=" + removedVertices.size() +
+                ", addedVertices=" + addedVertices.size() +
+                ", addedEdges=" + addedEdges.size() +
+                '}';
+    }
+}
@@ -1,21 +1,42 @@
 package com.rodrickjones.navgraph;
 
+import com.rodrickjones.navgraph.edges.BasicEdge;
 import com.rodrickjones.navgraph.edges.Edge;
 import com.rodrickjones.navgraph.requirements.RequirementContext;
-import com.rodrickjones.navgraph.util.Frontier;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
+import com.rodrickjones.navgraph.util.IndexedMinHeap;
+import com.rodrickjones.navgraph.util.RangeTask;
 import com.rodrickjones.navgraph.vertices.Vertex;
 import com.rodrickjones.navgraph.requirements.Requirement;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 import java.util.stream.Collectors;
 
 @Slf4j
 public class HierarchicalGraph extends SimpleGraph {
+    private static final int MAGIC = 0x4e474843;
+    private static final int VERSION = 4;
+
     private final Map<Integer, Region> regions = new HashMap<>(1500);
-    private final Map<SubRegion, Collection<SubRegionEdge>> sectionEdges = new HashMap<>();
+    private final List<SubRegion> subRegions = new ArrayList<>();
+    private final List<Collection<SubRegionEdge>> sectionEdges = new ArrayList<>();
+    private final List<Portal> portals = new ArrayList<>();
+    private final Map<SubRegion, List<Portal>> subRegionPortals = new HashMap<>();
+    /**
+     * Per level above sub regions, the requirements of the gated crossings inside each cluster that are not
+     * edges of that level
+     */
+    private final List<Map<Integer, Set<Requirement>>> hiddenGates = new ArrayList<>();
+    private final ThreadLocal<LocalSearch> localSearch = ThreadLocal.withInitial(LocalSearch::new);
+    private int[] levelSizes = {512, 4096};
+    private volatile Reachability reachability;
 
     public HierarchicalGraph() {
         super();
@@ -29,20 +50,493 @@ public class HierarchicalGraph extends SimpleGraph {
         super(vertices, edges);
     }
 
+    /**
+     * Sets the widths of the clusters above the {@link Region#WIDTH} wide sub regions, smallest first.
+     * Takes effect on the next compile.
+     */
+    public void setLevelSizes(int... sizes) {
+        int previous = Region.WIDTH;
+        for (int size : sizes) {
+            if (size <= previous || size % previous != 0) {
+                throw new IllegalArgumentException("Level sizes must be increasing multiples of " + Region.WIDTH + ": " + Arrays.toString(sizes));
+            }
+            previous = size;
+        }
+        levelSizes = sizes.clone();
+    }
+
+    /**
+     * @return the number of levels, including the sub region level
+     */
+    public int getLevelCount() {
+        return levelSizes.length + 1;
+    }
+
+    /**
+     * @return the id of the cluster containing the vertex at the level, which is its sub region id at level 0
+     */
+    public int getClusterId(int level, Vertex vertex) {
+        if (level == 0) {
+            return getSubRegionId(vertex);
+        }
+        return getClusterId(level, vertex.getX(), vertex.getY(), vertex.getZ());
+    }
+
+    private int getClusterId(int level, int x, int y, int z) {
+        int size = levelSizes[level - 1];
+        return z << 28 | (x / size) << 14 | y / size;
+    }
+
+    /**
+     * Legs of a cluster only follow requirement free routes, so a cluster hiding a gated crossing the requirements
+     * meet has to be searched through the level below to stay exact.
+     * @return whether the cluster containing the vertex at the level hides a gated crossing whose requirement is met
+     */
+    public boolean hidesMetGate(int level, Vertex vertex, RequirementMemo requirements) {
+        if (level == 0 || level > hiddenGates.size()) {
+            return false;
+        }
+        Set<Requirement> gates = hiddenGates.get(level - 1).get(getClusterId(level, vertex));
+        if (gates != null) {
+            for (Requirement gate : gates) {
+                if (requirements.isMet(gate)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the highest level whose clusters the two vertices are in different ones of, or 0 if there is none
+     */
+    private int getCrossingLevel(Vertex a, Vertex b) {
+        for (int level = levelSizes.length; level > 0; level--) {
+            if (getClusterId(level, a) != getClusterId(level, b)) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
     public void compile() {
-        Set<Vertex> visited = new HashSet<>(getVertices().size());
-        log.info("Compiling regions and sections");
+        compile(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compiles regions, sections and portals using the given pool. Each region is flood filled by a single task,
+     * so its sub regions stay confined to that thread until every region is merged in.
+     */
+    public void compile(ForkJoinPool pool) {
+        log.info("Compiling regions and sections on {} threads", pool.getParallelism());
         long start = System.currentTimeMillis();
+        clearHierarchy();
+        Map<Integer, List<Vertex>> regionVertices = new HashMap<>();
         for (Vertex vertex : getVertices()) {
-            if (!visited.contains(vertex)) {
-                Region region = regions.computeIfAbsent(getRegionId(vertex), Region::new);
-                SubRegion subRegion = new SubRegion(region.id + "_" + region.subRegions.size());
+            regionVertices.computeIfAbsent(getRegionId(vertex), k -> new ArrayList<>()).add(vertex);
+        }
+        List<Map.Entry<Integer, List<Vertex>>> work = new ArrayList<>(regionVertices.entrySet());
+        Region[] compiled = new Region[work.size()];
+        pool.invoke(new RangeTask(0, work.size(), i -> compiled[i] = compileRegion(work.get(i).getKey(), work.get(i).getValue())));
+        for (Region region : compiled) {
+            regions.put(region.id, region);
+        }
+        numberSubRegions();
+        log.info("Time taken: " + formatTime(System.currentTimeMillis() - start));
+        log.info("Linking sections");
+        start = System.currentTimeMillis();
+        List<ArrayList<SubRegionEdge>> linked = new ArrayList<>(Collections.nCopies(subRegions.size(), null));
+        pool.invoke(new RangeTask(0, subRegions.size(), i -> linked.set(i, linkSubRegion(subRegions.get(i)))));
+        sectionEdges.addAll(linked);
+        log.info("Time taken: " + formatTime(System.currentTimeMillis() - start));
+        log.info("Linking portals");
+        start = System.currentTimeMillis();
+        linkPortals(subRegions, pool, null, null, null);
+        log.info("Time taken: " + formatTime(System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Applies the patch and recompiles the regions it touched in place, so it must not run while queries do.
+     * @see #withPatch(GraphPatch)
+     */
+    public void applyPatch(GraphPatch patch) {
+        recompile(patch.apply(this), ForkJoinPool.commonPool());
+    }
+
+    public HierarchicalGraph withPatch(GraphPatch patch) {
+        return withPatch(patch, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Applies the patch to a copy-on-write view of this graph's adjacency and recompiles the regions it touched
+     * there, sharing the untouched parts of this hierarchy. Only the adjacency lists the patch changes are copied,
+     * and only the clusters holding a touched region, or whose portals changed, are relinked.
+     * <p>
+     * This graph is only read, so queries against it can keep running until the copy replaces it, but it must not
+     * be changed afterwards.
+     */
+    public HierarchicalGraph withPatch(GraphPatch patch, ForkJoinPool pool) {
+        HierarchicalGraph graph = new HierarchicalGraph(0, 0);
+        graph.levelSizes = levelSizes;
+        graph.shareAdjacency(this);
+        Set<Integer> touched = patch.apply(graph);
+        if (subRegions.isEmpty()) {
+            graph.compile(pool);
+        } else {
+            graph.recompile(subRegions, sectionEdges, portals, touched, pool);
+        }
+        return graph;
+    }
+
+    /**
+     * Recompiles the given regions, such as those returned by {@link GraphPatch#apply(Graph)}, and keeps the sub
+     * regions of every other region. Their section edges and entrance costs are reused unless they lead into a
+     * recompiled region or their entrances changed, and the legs of the levels above unless their clusters changed.
+     */
+    public void recompile(Collection<Integer> regionIds, ForkJoinPool pool) {
+        if (subRegions.isEmpty()) {
+            compile(pool);
+            return;
+        }
+        recompile(new ArrayList<>(subRegions), new ArrayList<>(sectionEdges), new ArrayList<>(portals), new HashSet<>(regionIds), pool);
+    }
+
+    /**
+     * Sub regions of untouched regions are rewrapped rather than renumbered in place, so the previous hierarchy
+     * stays intact for whoever still reads it.
+     */
+    private void recompile(List<SubRegion> previousSubRegions, List<Collection<SubRegionEdge>> previousSectionEdges,
+                           List<Portal> previousPortals, Set<Integer> touched, ForkJoinPool pool) {
+        long start = System.currentTimeMillis();
+        clearHierarchy();
+        //New sub region to the one it wraps, and back, by identity as sub regions hash by id
+        Map<SubRegion, SubRegion> previous = new IdentityHashMap<>();
+        Map<SubRegion, SubRegion> current = new IdentityHashMap<>();
+        for (SubRegion old : previousSubRegions) {
+            if (touched.contains(old.region.id) || regions.containsKey(old.region.id)) {
+                continue;
+            }
+            Region region = old.region.copy();
+            regions.put(region.id, region);
+            for (SubRegion oldSubRegion : old.region.getSubRegions()) {
+                SubRegion subRegion = new SubRegion(region, oldSubRegion.index, oldSubRegion.vertices);
                 region.addSubRegion(subRegion);
-                Queue<Vertex> frontier = new Frontier<>(Comparator.comparingInt(Vertex::getY));
+                previous.put(subRegion, oldSubRegion);
+                current.put(oldSubRegion, subRegion);
+            }
+        }
+        Map<Integer, List<Vertex>> regionVertices = new HashMap<>();
+        for (Vertex vertex : getVertices()) {
+            int regionId = getRegionId(vertex);
+            if (touched.contains(regionId)) {
+                regionVertices.computeIfAbsent(regionId, k -> new ArrayList<>()).add(vertex);
+            }
+        }
+        List<Map.Entry<Integer, List<Vertex>>> work = new ArrayList<>(regionVertices.entrySet());
+        Region[] compiled = new Region[work.size()];
+        pool.invoke(new RangeTask(0, work.size(), i -> compiled[i] = compileRegion(work.get(i).getKey(), work.get(i).getValue())));
+        for (Region region : compiled) {
+            regions.put(region.id, region);
+        }
+        numberSubRegions();
+
+        List<ArrayList<SubRegionEdge>> linked = new ArrayList<>(Collections.nCopies(subRegions.size(), null));
+        pool.invoke(new RangeTask(0, subRegions.size(), i -> {
+            SubRegion subRegion = subRegions.get(i);
+            SubRegion old = previous.get(subRegion);
+            ArrayList<SubRegionEdge> edges = old == null ? null : relinkSubRegion(subRegion, previousSectionEdges.get(old.id), current, touched);
+            linked.set(i, edges != null ? edges : linkSubRegion(subRegion));
+        }));
+        sectionEdges.addAll(linked);
+
+        Map<SubRegion, List<Portal>> previousEntrances = new IdentityHashMap<>();
+        for (Portal portal : previousPortals) {
+            SubRegion subRegion = current.get(portal.subRegion);
+            if (subRegion != null) {
+                previousEntrances.computeIfAbsent(subRegion, k -> new ArrayList<>()).add(portal);
+            }
+        }
+        linkPortals(subRegions, pool, previousEntrances, previousPortals, touched);
+        log.info("Recompiled {} of {} regions in {}: {}", compiled.length, regions.size(),
+                formatTime(System.currentTimeMillis() - start), this);
+    }
+
+    /**
+     * Numbers the sub regions in region id order, so a recompiled hierarchy numbers them, and hands out portal ids,
+     * the same way as a fresh compile of the same graph.
+     */
+    private void numberSubRegions() {
+        subRegions.clear();
+        regions.values().stream().sorted(Comparator.comparingInt(r -> r.id)).forEach(region -> {
+            for (SubRegion subRegion : region.getSubRegions()) {
+                subRegion.id = subRegions.size();
+                subRegions.add(subRegion);
+            }
+        });
+    }
+
+    /**
+     * @return the section edges of an untouched sub region carried over to its new wrapper, or null if one of them
+     * leads into a recompiled region
+     */
+    private ArrayList<SubRegionEdge> relinkSubRegion(SubRegion subRegion, Collection<SubRegionEdge> previousEdges,
+                                                     Map<SubRegion, SubRegion> current, Set<Integer> touched) {
+        ArrayList<SubRegionEdge> edges = new ArrayList<>(previousEdges.size());
+        for (SubRegionEdge edge : previousEdges) {
+            if (touched.contains(getRegionId(edge.edge.getDestination()))) {
+                return null;
+            }
+            edges.add(new SubRegionEdge(subRegion, edge.destination == null ? null : current.get(edge.destination), edge.cost, edge.edge));
+        }
+        return edges;
+    }
+
+    /**
+     * Loads the hierarchy from the file if it was written for this graph, otherwise compiles it and writes it to the file.
+     */
+    public void compile(File hierarchyFile) {
+        if (hierarchyFile.exists()) {
+            try {
+                if (readHierarchy(hierarchyFile)) {
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to read hierarchy from " + hierarchyFile + ", recompiling", e);
+            }
+        }
+        compile();
+        try {
+            writeHierarchy(hierarchyFile);
+        } catch (IOException e) {
+            log.warn("Unable to write hierarchy to " + hierarchyFile, e);
+        }
+    }
+
+    private void clearHierarchy() {
+        regions.clear();
+        subRegions.clear();
+        sectionEdges.clear();
+        portals.clear();
+        subRegionPortals.clear();
+        hiddenGates.clear();
+        reachability = null;
+    }
+
+    /**
+     * @return the reachability index of the compiled hierarchy, built on first use
+     */
+    public Reachability getReachability() {
+        Reachability reachability = this.reachability;
+        if (reachability == null) {
+            synchronized (this) {
+                reachability = this.reachability;
+                if (reachability == null) {
+                    long start = System.currentTimeMillis();
+                    reachability = new Reachability(this);
+                    this.reachability = reachability;
+                    log.info("Reachability indexed in {}ms: {}", System.currentTimeMillis() - start, reachability);
+                }
+            }
+        }
+        return reachability;
+    }
+
+    /**
+     * CRC32 over every vertex and edge, independent of map iteration order.
+     * Edges are identified by their position in their origin's edge collection, so reordering them also changes it.
+     */
+    public long getChecksum() {
+        int[] ids = getVertices().stream().mapToInt(Vertex::hashCode).sorted().toArray();
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (int id : ids) {
+            Collection<Edge> edges = getEdges(new Vertex(id));
+            buffer.clear();
+            buffer.putInt(id).putInt(edges == null ? 0 : edges.size());
+            crc.update(buffer.array(), 0, buffer.position());
+            if (edges != null) {
+                for (Edge edge : edges) {
+                    buffer.clear();
+                    buffer.putInt(edge.getDestination().hashCode()).putFloat(edge.getCost())
+                            .putInt(edge.getType()).putInt(edge.getRequirement() == null ? 0 : 1);
+                    crc.update(buffer.array(), 0, buffer.position());
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes sub region membership, section edges and the portal graph, along with the graph's checksum.
+     */
+    public void writeHierarchy(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(getChecksum());
+            dos.writeInt(levelSizes.length);
+            for (int size : levelSizes) {
+                dos.writeInt(size);
+            }
+            dos.writeInt(subRegions.size());
+            for (SubRegion subRegion : subRegions) {
+                dos.writeInt(subRegion.region.id);
+                dos.writeInt(subRegion.vertices.size());
+                for (Vertex vertex : subRegion.vertices) {
+                    dos.writeInt(vertex.hashCode());
+                }
+            }
+            for (SubRegion subRegion : subRegions) {
+                Collection<SubRegionEdge> edges = sectionEdges.get(subRegion.id);
+                dos.writeInt(edges.size());
+                for (SubRegionEdge edge : edges) {
+                    dos.writeInt(edge.edge.getOrigin().hashCode());
+                    dos.writeInt(indexOf(edge.edge));
+                }
+            }
+            dos.writeInt(portals.size());
+            for (Portal portal : portals) {
+                dos.writeInt(portal.vertex.hashCode());
+                dos.writeInt(portal.subRegion.id);
+            }
+            for (Portal portal : portals) {
+                dos.writeInt(portal.getLevel());
+                for (int level = 0; level <= portal.getLevel(); level++) {
+                    List<PortalEdge> edges = portal.getEdges(level);
+                    dos.writeInt(edges.size());
+                    for (PortalEdge edge : edges) {
+                        dos.writeInt(edge.destination.id);
+                        dos.writeDouble(edge.cost);
+                        dos.writeInt(edge.edge == null ? -1 : indexOf(edge.edge));
+                    }
+                }
+            }
+        }
+        log.info("Hierarchy written in {}ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Replaces the hierarchy with the one in the file.
+     * @return false if the file was written for a different graph or version, leaving the hierarchy empty
+     */
+    public boolean readHierarchy(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        clearHierarchy();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IllegalStateException(file + " is not a hierarchy");
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                log.warn("Version mismatch: File={}, HierarchicalGraph={}", version, VERSION);
+                return false;
+            }
+            long checksum = dis.readLong();
+            if (checksum != getChecksum()) {
+                log.warn("Checksum mismatch, {} was written for a different graph", file);
+                return false;
+            }
+            int[] sizes = new int[dis.readInt()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = dis.readInt();
+            }
+            if (!Arrays.equals(sizes, levelSizes)) {
+                log.warn("Level size mismatch: File={}, HierarchicalGraph={}", Arrays.toString(sizes), Arrays.toString(levelSizes));
+                return false;
+            }
+            int subRegionCount = dis.readInt();
+            for (int i = 0; i < subRegionCount; i++) {
+                Region region = regions.computeIfAbsent(dis.readInt(), Region::new);
+                SubRegion subRegion = new SubRegion(region, region.subRegions.size());
+                subRegion.id = i;
+                region.addSubRegion(subRegion);
+                subRegions.add(subRegion);
+                int vertexCount = dis.readInt();
+                subRegion.vertices.ensureCapacity(vertexCount);
+                for (int j = 0; j < vertexCount; j++) {
+                    subRegion.add(readVertex(dis));
+                }
+            }
+            for (SubRegion subRegion : subRegions) {
+                int edgeCount = dis.readInt();
+                ArrayList<SubRegionEdge> edges = new ArrayList<>(edgeCount);
+                for (int i = 0; i < edgeCount; i++) {
+                    Edge edge = getEdge(readVertex(dis), dis.readInt());
+                    edges.add(new SubRegionEdge(subRegion, getSubRegion(edge.getDestination()),
+                            Math.sqrt(subRegion.getVertices().size()), edge));
+                }
+                sectionEdges.add(edges);
+            }
+            int portalCount = dis.readInt();
+            for (int i = 0; i < portalCount; i++) {
+                addPortal(readVertex(dis), subRegions.get(dis.readInt()));
+            }
+            for (Portal portal : portals) {
+                int portalLevel = dis.readInt();
+                for (int level = 0; level <= portalLevel; level++) {
+                    int edgeCount = dis.readInt();
+                    ArrayList<PortalEdge> edges = portal.getOrAddEdges(level);
+                    edges.ensureCapacity(edgeCount);
+                    for (int i = 0; i < edgeCount; i++) {
+                        Portal destination = portals.get(dis.readInt());
+                        double cost = dis.readDouble();
+                        int edge = dis.readInt();
+                        edges.add(new PortalEdge(portal, destination, cost, edge < 0 ? null : getEdge(portal.vertex, edge), level));
+                    }
+                }
+            }
+        }
+        indexHiddenGates();
+        log.info("Hierarchy read in {}ms: {}", System.currentTimeMillis() - start, this);
+        return true;
+    }
+
+    private Vertex readVertex(DataInputStream dis) throws IOException {
+        int id = dis.readInt();
+        Vertex vertex = getVertex(Vertex.getX(id), Vertex.getY(id), Vertex.getZ(id));
+        if (vertex == null) {
+            throw new IllegalStateException("Unknown vertex " + new Vertex(id));
+        }
+        return vertex;
+    }
+
+    private int indexOf(Edge edge) {
+        int index = 0;
+        for (Edge other : getEdges(edge.getOrigin())) {
+            if (other == edge) {
+                return index;
+            }
+            index++;
+        }
+        throw new IllegalStateException(edge + " is not part of the graph");
+    }
+
+    private Edge getEdge(Vertex origin, int index) {
+        Collection<Edge> edges = getEdges(origin);
+        if (edges == null || index < 0 || index >= edges.size()) {
+            throw new IllegalStateException("Unknown edge " + index + " of " + origin);
+        }
+        Iterator<Edge> iterator = edges.iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    private Region compileRegion(int regionId, List<Vertex> regionVertices) {
+        Region region = new Region(regionId);
+        //One way edges make the sub regions depend on where each flood fill starts, so start in a fixed order
+        regionVertices.sort(Comparator.comparingInt(Vertex::hashCode));
+        for (Vertex vertex : regionVertices) {
+            if (region.getSubRegion(vertex) == null) {
+                SubRegion subRegion = new SubRegion(region, region.subRegions.size());
+                region.addSubRegion(subRegion);
+                Queue<Vertex> frontier = new ArrayDeque<>();
                 frontier.add(vertex);
+                subRegion.add(vertex);
                 while (!frontier.isEmpty()) {
                     Vertex current = frontier.poll();
-                    subRegion.add(vertex);
                     Collection<Edge> edges = getEdges(current);
                     if (edges != null) {
                         for (Edge edge : edges) {
@@ -51,41 +545,494 @@ public class HierarchicalGraph extends SimpleGraph {
                                 continue;
                             }
                             Vertex dest = edge.getDestination();
-                            if (!visited.contains(dest) && !frontier.contains(dest)
-                                    && dest.getX() >= region.getBaseX() && dest.getY() >= region.getBaseY()
-                                    && dest.getX() < region.getBaseX() + Region.WIDTH && dest.getY() < region.getBaseY() + Region.HEIGHT
-                                    && !subRegion.contains(dest)) {
+                            //Vertices are assigned as soon as they are queued, so this also covers the frontier
+                            if (region.isWithin(dest) && region.getSubRegion(dest) == null) {
                                 frontier.add(dest);
                                 subRegion.add(dest);
                             }
                         }
                     }
                 }
-                visited.addAll(subRegion.getVertices());
+                subRegion.vertices.trimToSize();
             }
         }
-        log.info("Time taken: " + formatTime(System.currentTimeMillis() - start));
-        log.info("Linking sections");
-        start = System.currentTimeMillis();
-        List<SubRegion> subRegions = regions.values().stream().flatMap(r -> r.getSubRegions().stream()).collect(Collectors.toList());
-        for (SubRegion subRegion : subRegions) {
-            Collection<SubRegionEdge> subRegionEdges = this.sectionEdges.computeIfAbsent(subRegion, k -> new ArrayList<>());
-            for (Vertex vertex : subRegion.getVertices()) {
-                Collection<Edge> edges = getEdges(vertex);
-                if (edges != null) {
-                    for (Edge edge : edges) {
-                        if (!subRegion.contains(edge.getDestination())) {
-                            subRegionEdges.add(new SubRegionEdge(subRegion, getSubRegion(edge.getDestination()),
-                                    Math.sqrt(subRegion.getVertices().size()), edge.getRequirement()));
+        return region;
+    }
+
+    private ArrayList<SubRegionEdge> linkSubRegion(SubRegion subRegion) {
+        ArrayList<SubRegionEdge> subRegionEdges = new ArrayList<>();
+        for (Vertex vertex : subRegion.getVertices()) {
+            Collection<Edge> edges = getEdges(vertex);
+            if (edges != null) {
+                for (Edge edge : edges) {
+                    if (!subRegion.contains(edge.getDestination())) {
+                        subRegionEdges.add(new SubRegionEdge(subRegion, getSubRegion(edge.getDestination()),
+                                Math.sqrt(subRegion.getVertices().size()), edge));
+                    }
+                }
+            }
+        }
+        subRegionEdges.trimToSize();
+        return subRegionEdges;
+    }
+
+    /**
+     * Builds the portal graph: one entrance pair per contiguous run of edges between two sub regions,
+     * and exact requirement free costs between the entrances of each sub region.
+     * @param previousPortals the portals of the hierarchy this one replaces, or null
+     * @param touched the regions recompiled since that hierarchy, or null
+     */
+    private void linkPortals(List<SubRegion> subRegions, ForkJoinPool pool, Map<SubRegion, List<Portal>> previousEntrances,
+                             List<Portal> previousPortals, Set<Integer> touched) {
+        List<Map<SubRegion, List<Edge>>> crossings = new ArrayList<>(Collections.nCopies(subRegions.size(), null));
+        pool.invoke(new RangeTask(0, subRegions.size(), i -> crossings.set(i, getCrossings(subRegions.get(i)))));
+        //Portal ids are handed out in sub region order, so they do not depend on scheduling
+        Map<Vertex, Portal> portalsByVertex = new HashMap<>();
+        for (int i = 0; i < subRegions.size(); i++) {
+            SubRegion subRegion = subRegions.get(i);
+            for (Map.Entry<SubRegion, List<Edge>> entry : crossings.get(i).entrySet()) {
+                for (Edge edge : entry.getValue()) {
+                    Portal origin = portalsByVertex.computeIfAbsent(edge.getOrigin(), v -> addPortal(v, subRegion));
+                    Portal destination = portalsByVertex.computeIfAbsent(edge.getDestination(), v -> addPortal(v, entry.getKey()));
+                    origin.edges.add(new PortalEdge(origin, destination, edge.getCost(), edge, 0));
+                }
+            }
+        }
+        //Each task only adds edges to the portals of its own sub region
+        List<List<Portal>> entrances = new ArrayList<>(subRegionPortals.values());
+        pool.invoke(new RangeTask(0, entrances.size(), i -> linkEntrances(entrances.get(i),
+                previousEntrances == null ? null : previousEntrances.get(entrances.get(i).get(0).subRegion))));
+        linkLevels(pool, previousPortals, touched);
+        portals.forEach(p -> {
+            p.edges.trimToSize();
+            p.upperEdges.forEach(ArrayList::trimToSize);
+        });
+    }
+
+    /**
+     * Promotes the portals on the border of each higher level cluster, and both ends of every crossing with a
+     * requirement to the lowest level whose clusters hold both, then links the portals of every cluster with the
+     * costs of the cheapest requirement free routes through the level below. Clusters above that level hide the
+     * crossing, which {@link #hidesMetGate(int, Vertex, RequirementMemo)} reports so searches can descend into them.
+     * <p>
+     * A cluster holding no touched region whose portals are the same as in the previous hierarchy has the same
+     * routes through it, so its legs are copied instead of searched for.
+     * @param previous the portals of the hierarchy this one replaces, or null
+     * @param touched the regions recompiled since that hierarchy, or null
+     */
+    private void linkLevels(ForkJoinPool pool, List<Portal> previous, Set<Integer> touched) {
+        for (Portal portal : portals) {
+            for (PortalEdge edge : portal.edges) {
+                if (edge.edge != null) {
+                    int top = getPromotedLevel(edge);
+                    for (int level = 1; level <= top; level++) {
+                        portal.getOrAddEdges(level).add(edge);
+                        edge.destination.getOrAddEdges(level);
+                    }
+                }
+            }
+        }
+        indexHiddenGates();
+        Map<Vertex, Portal> previousByVertex = new HashMap<>();
+        Map<Vertex, Portal> byVertex = new HashMap<>();
+        if (previous != null) {
+            previous.forEach(p -> previousByVertex.put(p.vertex, p));
+            portals.forEach(p -> byVertex.put(p.vertex, p));
+        }
+        for (int level = 1; level < getLevelCount(); level++) {
+            int clusterLevel = level;
+            Map<Integer, List<Portal>> clusters = new HashMap<>();
+            for (Portal portal : portals) {
+                if (portal.getLevel() >= level) {
+                    clusters.computeIfAbsent(getClusterId(level, portal.vertex), k -> new ArrayList<>()).add(portal);
+                }
+            }
+            Set<Integer> touchedClusters = new HashSet<>();
+            Map<Integer, Integer> previousSizes = new HashMap<>();
+            if (previous != null) {
+                for (int regionId : touched) {
+                    for (int z = 0; z < Region.PLANES; z++) {
+                        touchedClusters.add(getClusterId(level, (regionId >> 8 & 0xFF) << 6, (regionId & 0xFF) << 6, z));
+                    }
+                }
+                for (Portal portal : previous) {
+                    if (portal.getLevel() >= level) {
+                        previousSizes.merge(getClusterId(level, portal.vertex), 1, Integer::sum);
+                    }
+                }
+            }
+            List<List<Portal>> work = new ArrayList<>();
+            for (Map.Entry<Integer, List<Portal>> cluster : clusters.entrySet()) {
+                List<Portal> clusterPortals = cluster.getValue();
+                if (previous != null && !touchedClusters.contains(cluster.getKey())
+                        && clusterPortals.size() == previousSizes.getOrDefault(cluster.getKey(), 0)
+                        && clusterPortals.stream().allMatch(p -> previousByVertex.containsKey(p.vertex)
+                        && previousByVertex.get(p.vertex).getLevel() >= clusterLevel)) {
+                    copyLegs(clusterPortals, level, previousByVertex, byVertex);
+                } else {
+                    work.add(clusterPortals);
+                }
+            }
+            //Each task only adds edges to the portals of its own cluster
+            pool.invoke(new RangeTask(0, work.size(), i -> linkCluster(work.get(i), clusterLevel)));
+            log.debug("Level {}: {} clusters, {} relinked, {} portals", level, clusters.size(), work.size(),
+                    clusters.values().stream().mapToInt(List::size).sum());
+        }
+    }
+
+    private static void copyLegs(List<Portal> cluster, int level, Map<Vertex, Portal> previousByVertex, Map<Vertex, Portal> byVertex) {
+        for (Portal portal : cluster) {
+            for (PortalEdge leg : previousByVertex.get(portal.vertex).getEdges(level)) {
+                if (leg.edge == null) {
+                    portal.getOrAddEdges(level).add(new PortalEdge(portal, byVertex.get(leg.destination.vertex), leg.cost, null, level));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the highest level the crossing is an edge of
+     */
+    private int getPromotedLevel(PortalEdge crossing) {
+        int level = getCrossingLevel(crossing.origin.vertex, crossing.destination.vertex);
+        //Legs above level 0 are requirement free, so a gated crossing stays a transition of the cluster holding both ends
+        return crossing.edge.getRequirement() != null ? Math.min(level + 1, levelSizes.length) : level;
+    }
+
+    private void indexHiddenGates() {
+        hiddenGates.clear();
+        for (int level = 1; level < getLevelCount(); level++) {
+            hiddenGates.add(new HashMap<>());
+        }
+        for (Portal portal : portals) {
+            for (PortalEdge edge : portal.edges) {
+                if (edge.edge != null && edge.edge.getRequirement() != null) {
+                    for (int level = getPromotedLevel(edge) + 1; level < getLevelCount(); level++) {
+                        hiddenGates.get(level - 1).computeIfAbsent(getClusterId(level, portal.vertex), k -> new HashSet<>())
+                                .add(edge.edge.getRequirement());
+                    }
+                }
+            }
+        }
+    }
+
+    private void linkCluster(List<Portal> cluster, int level) {
+        for (Portal portal : cluster) {
+            Map<Portal, Double> costs = searchCluster(portal, level, cluster, null);
+            for (Portal other : cluster) {
+                Double cost = costs.get(other);
+                if (other != portal && cost != null) {
+                    portal.getOrAddEdges(level).add(new PortalEdge(portal, other, cost, null, level));
+                }
+            }
+        }
+    }
+
+    /**
+     * Dijkstra over the portal edges of the level below that never leaves the source's cluster,
+     * skipping every edge with a requirement.
+     * @param parents filled with the edge each portal was reached through, if not null
+     * @return the costs of the targets that could be reached
+     */
+    private Map<Portal, Double> searchCluster(Portal source, int level, Collection<Portal> targets, Map<Portal, PortalEdge> parents) {
+        int cluster = getClusterId(level, source.vertex);
+        Map<Portal, Double> costs = new HashMap<>();
+        Map<Portal, Double> targetCosts = new HashMap<>();
+        Set<Portal> remaining = new HashSet<>(targets);
+        PriorityQueue<Map.Entry<Portal, Double>> frontier = new PriorityQueue<>(Map.Entry.comparingByValue());
+        costs.put(source, 0d);
+        frontier.add(new AbstractMap.SimpleImmutableEntry<>(source, 0d));
+        while (!frontier.isEmpty() && !remaining.isEmpty()) {
+            Map.Entry<Portal, Double> current = frontier.poll();
+            Portal portal = current.getKey();
+            double cost = current.getValue();
+            if (cost > costs.get(portal)) {
+                continue;
+            }
+            if (remaining.remove(portal)) {
+                targetCosts.put(portal, cost);
+            }
+            for (PortalEdge edge : portal.getEdges(level - 1)) {
+                if (edge.edge != null && edge.edge.getRequirement() != null
+                        || getClusterId(level, edge.destination.vertex) != cluster) {
+                    continue;
+                }
+                double next = cost + edge.cost;
+                Double known = costs.get(edge.destination);
+                if (known == null || next < known) {
+                    costs.put(edge.destination, next);
+                    if (parents != null) {
+                        parents.put(edge.destination, edge);
+                    }
+                    frontier.add(new AbstractMap.SimpleImmutableEntry<>(edge.destination, next));
+                }
+            }
+        }
+        return targetCosts;
+    }
+
+    /**
+     * Unpacks a precomputed leg between two portals of a higher level cluster into edges of the level below.
+     * @return the edges in order, or null if the route no longer exists
+     */
+    public List<PortalEdge> expand(PortalEdge leg) {
+        if (leg.edge != null || leg.level == 0) {
+            throw new IllegalArgumentException(leg + " cannot be expanded");
+        }
+        Map<Portal, PortalEdge> parents = new HashMap<>();
+        if (searchCluster(leg.origin, leg.level, Collections.singletonList(leg.destination), parents).isEmpty()) {
+            return null;
+        }
+        LinkedList<PortalEdge> route = new LinkedList<>();
+        for (Portal portal = leg.destination; portal != leg.origin; portal = route.getFirst().origin) {
+            route.addFirst(parents.get(portal));
+        }
+        return route;
+    }
+
+    private Map<SubRegion, List<Edge>> getCrossings(SubRegion subRegion) {
+        Map<SubRegion, List<Edge>> crossings = new HashMap<>();
+        for (Vertex vertex : subRegion.getVertices()) {
+            Collection<Edge> edges = getEdges(vertex);
+            if (edges != null) {
+                for (Edge edge : edges) {
+                    if (!subRegion.contains(edge.getDestination())) {
+                        SubRegion destination = getSubRegion(edge.getDestination());
+                        if (destination != null) {
+                            crossings.computeIfAbsent(destination, k -> new ArrayList<>()).add(edge);
+                        }
+                    }
+                }
+            }
+        }
+        crossings.replaceAll((k, edges) -> getRepresentatives(edges));
+        return crossings;
+    }
+
+    /**
+     * @param previous the entrances of the same, unchanged sub region in the hierarchy this one replaces, whose
+     *                 costs are copied instead of searched for when the entrances are the same, or null
+     */
+    private void linkEntrances(List<Portal> entrances, List<Portal> previous) {
+        if (previous != null && previous.size() == entrances.size()) {
+            Map<Vertex, Portal> byVertex = new HashMap<>();
+            for (Portal portal : entrances) {
+                byVertex.put(portal.vertex, portal);
+            }
+            if (previous.stream().allMatch(p -> byVertex.containsKey(p.vertex))) {
+                for (Portal old : previous) {
+                    Portal portal = byVertex.get(old.vertex);
+                    for (PortalEdge edge : old.edges) {
+                        if (edge.edge == null) {
+                            portal.edges.add(new PortalEdge(portal, byVertex.get(edge.destination.vertex), edge.cost, null, 0));
                         }
                     }
                 }
+                return;
             }
-            if(subRegionEdges instanceof ArrayList) {
-                ((ArrayList<SubRegionEdge>) subRegionEdges).trimToSize();
+        }
+        List<Vertex> targets = entrances.stream().map(Portal::getVertex).collect(Collectors.toList());
+        for (Portal portal : entrances) {
+            Map<Vertex, Double> costs = getLocalCosts(portal.getVertex(), portal.getSubRegion(), (RequirementMemo) null, targets);
+            for (Portal other : entrances) {
+                Double cost = costs.get(other.getVertex());
+                if (other != portal && cost != null) {
+                    portal.edges.add(new PortalEdge(portal, other, cost, null, 0));
+                }
+            }
+        }
+    }
+
+    private Portal addPortal(Vertex vertex, SubRegion subRegion) {
+        Portal portal = new Portal(portals.size(), vertex, subRegion);
+        portals.add(portal);
+        subRegionPortals.computeIfAbsent(subRegion, k -> new ArrayList<>()).add(portal);
+        return portal;
+    }
+
+    /**
+     * Splits the edges between two sub regions into runs of adjacent origins sharing a requirement,
+     * picking the middle edge of each run. Edges that are not {@link BasicEdge}s are always kept.
+     */
+    private static List<Edge> getRepresentatives(List<Edge> crossings) {
+        crossings.sort(Comparator.comparingInt((Edge e) -> e.getOrigin().getZ())
+                .thenComparingInt(e -> e.getOrigin().getX()).thenComparingInt(e -> e.getOrigin().getY()));
+        List<Edge> representatives = new ArrayList<>();
+        List<Edge> run = new ArrayList<>();
+        for (Edge edge : crossings) {
+            if (!run.isEmpty()) {
+                Edge last = run.get(run.size() - 1);
+                if (edge.getType() != BasicEdge.TYPE || last.getType() != BasicEdge.TYPE
+                        || !isAdjacent(last.getOrigin(), edge.getOrigin())
+                        || !Objects.equals(last.getRequirement(), edge.getRequirement())) {
+                    representatives.add(run.get(run.size() / 2));
+                    run.clear();
+                }
+            }
+            run.add(edge);
+        }
+        if (!run.isEmpty()) {
+            representatives.add(run.get(run.size() / 2));
+        }
+        return representatives;
+    }
+
+    private static boolean isAdjacent(Vertex a, Vertex b) {
+        return a.getZ() == b.getZ() && Math.abs(a.getX() - b.getX()) <= 1 && Math.abs(a.getY() - b.getY()) <= 1;
+    }
+
+    /**
+     * Dijkstra from the source that never leaves the sub region, stopping once every target is settled.
+     * @param context the context edge requirements are checked against, or null to skip every edge with a requirement
+     * @return the costs of the targets that could be reached
+     */
+    public Map<Vertex, Double> getLocalCosts(Vertex source, SubRegion subRegion, RequirementContext context, Collection<Vertex> targets) {
+        return getLocalCosts(source, subRegion, context == null ? null : new RequirementMemo(context), targets);
+    }
+
+    /**
+     * @param requirements the answers edge requirements are checked against, or null to skip every edge with a requirement
+     */
+    public Map<Vertex, Double> getLocalCosts(Vertex source, SubRegion subRegion, RequirementMemo requirements, Collection<Vertex> targets) {
+        Map<Vertex, Double> targetCosts = new HashMap<>();
+        Region region = subRegion.region;
+        LocalSearch search = localSearch.get();
+        search.reset();
+        int remaining = 0;
+        for (Vertex target : targets) {
+            if (subRegion.contains(target) && search.setTarget(region.getTileIndex(target))) {
+                remaining++;
+            }
+        }
+        search.visit(region.getTileIndex(source), 0, source);
+        while (!search.frontier.isEmpty() && remaining > 0) {
+            int tile = search.frontier.poll();
+            Vertex vertex = search.vertices[tile];
+            double cost = search.costs[tile];
+            if (search.isTarget(tile)) {
+                targetCosts.put(vertex, cost);
+                remaining--;
+            }
+            Collection<Edge> edges = getEdges(vertex);
+            if (edges == null) {
+                continue;
+            }
+            for (Edge edge : edges) {
+                Requirement requirement = edge.getRequirement();
+                if (requirement != null && (requirements == null || !requirements.isMet(requirement))) {
+                    continue;
+                }
+                Vertex destination = edge.getDestination();
+                if (!subRegion.contains(destination)) {
+                    continue;
+                }
+                int next = region.getTileIndex(destination);
+                double nextCost = cost + edge.getCost();
+                if (!search.isSeen(next) || nextCost < search.costs[next]) {
+                    search.visit(next, nextCost, destination);
+                }
+            }
+        }
+        return targetCosts;
+    }
+
+    /**
+     * Dijkstra backwards from every target at once, along edges that never leave the sub region, so each portal of
+     * the sub region learns its cost to the nearest target from a single search.
+     * @param requirements the answers edge requirements are checked against, or null to skip every edge with a requirement
+     * @param costs filled with the cost from each portal, in {@link #getPortals(SubRegion)} order, or
+     *              {@link Double#POSITIVE_INFINITY} where no target can be reached
+     * @param nearest filled with the target each portal reaches at that cost
+     */
+    public void getExitCosts(SubRegion subRegion, RequirementMemo requirements, Collection<Vertex> targets,
+                             double[] costs, Vertex[] nearest) {
+        List<Portal> subRegionPortals = getPortals(subRegion);
+        Region region = subRegion.region;
+        LocalSearch search = localSearch.get();
+        search.reset();
+        indexIncomingEdges(search, subRegion);
+        int remaining = 0;
+        for (Portal portal : subRegionPortals) {
+            if (search.setTarget(region.getTileIndex(portal.vertex))) {
+                remaining++;
+            }
+        }
+        for (Vertex target : targets) {
+            int tile = region.getTileIndex(target);
+            if (subRegion.contains(target) && !search.isSeen(tile)) {
+                search.visit(tile, 0, target);
+                search.nearest[tile] = target;
+            }
+        }
+        while (!search.frontier.isEmpty() && remaining > 0) {
+            int tile = search.frontier.poll();
+            double cost = search.costs[tile];
+            if (search.isTarget(tile)) {
+                remaining--;
+            }
+            for (int i = search.incomingStart[tile]; i < search.incomingEnd[tile]; i++) {
+                Edge edge = search.incomingEdges[i];
+                Requirement requirement = edge.getRequirement();
+                if (requirement != null && (requirements == null || !requirements.isMet(requirement))) {
+                    continue;
+                }
+                Vertex previous = edge.getOrigin();
+                int next = region.getTileIndex(previous);
+                double nextCost = cost + edge.getCost();
+                if (!search.isSeen(next) || nextCost < search.costs[next]) {
+                    search.visit(next, nextCost, previous);
+                    search.nearest[next] = search.nearest[tile];
+                }
+            }
+        }
+        //Every portal still seen is settled, the search only stops early once all of them are
+        for (int i = 0; i < subRegionPortals.size(); i++) {
+            int tile = region.getTileIndex(subRegionPortals.get(i).vertex);
+            costs[i] = search.isSeen(tile) ? search.costs[tile] : Double.POSITIVE_INFINITY;
+            nearest[i] = search.isSeen(tile) ? search.nearest[tile] : null;
+        }
+    }
+
+    /**
+     * Groups the edges between vertices of the sub region by destination tile, for searches running backwards.
+     */
+    private void indexIncomingEdges(LocalSearch search, SubRegion subRegion) {
+        Region region = subRegion.region;
+        for (Vertex vertex : subRegion.vertices) {
+            search.incomingEnd[region.getTileIndex(vertex)] = 0;
+        }
+        int count = 0;
+        for (Vertex vertex : subRegion.vertices) {
+            Collection<Edge> edges = getEdges(vertex);
+            if (edges != null) {
+                for (Edge edge : edges) {
+                    if (subRegion.contains(edge.getDestination())) {
+                        search.incomingEnd[region.getTileIndex(edge.getDestination())]++;
+                        count++;
+                    }
+                }
+            }
+        }
+        if (search.incomingEdges.length < count) {
+            search.incomingEdges = new Edge[count];
+        }
+        int start = 0;
+        for (Vertex vertex : subRegion.vertices) {
+            int tile = region.getTileIndex(vertex);
+            search.incomingStart[tile] = start;
+            start += search.incomingEnd[tile];
+            search.incomingEnd[tile] = search.incomingStart[tile];
+        }
+        for (Vertex vertex : subRegion.vertices) {
+            Collection<Edge> edges = getEdges(vertex);
+            if (edges != null) {
+                for (Edge edge : edges) {
+                    if (subRegion.contains(edge.getDestination())) {
+                        search.incomingEdges[search.incomingEnd[region.getTileIndex(edge.getDestination())]++] = edge;
+                    }
+                }
             }
         }
-        log.info("Time taken: " + formatTime(System.currentTimeMillis() - start));
     }
 
     static DecimalFormat fourDig = new DecimalFormat("0000");
@@ -98,15 +1045,48 @@ public class HierarchicalGraph extends SimpleGraph {
     }
 
     public SubRegion getSubRegion(Vertex vertex) {
-        return regions.get(getRegionId(vertex)).getSubRegion(vertex);
+        Region region = regions.get(getRegionId(vertex));
+        return region == null ? null : region.getSubRegion(vertex);
     }
 
     private SubRegion getSubRegion(int x, int y, int z) {
-        return regions.get(getRegionId(x, y)).getSubRegion(x, y, z);
+        Region region = regions.get(getRegionId(x, y));
+        return region == null ? null : region.getSubRegion(x, y, z);
+    }
+
+    /**
+     * @return the id of the vertex's sub region, or -1 if it has none
+     */
+    public int getSubRegionId(Vertex vertex) {
+        SubRegion subRegion = getSubRegion(vertex);
+        return subRegion == null ? -1 : subRegion.id;
+    }
+
+    public SubRegion getSubRegion(int id) {
+        return subRegions.get(id);
+    }
+
+    public int getSubRegionCount() {
+        return subRegions.size();
     }
 
     public Collection<SubRegionEdge> getEdges(SubRegion subRegion) {
-        return sectionEdges.get(subRegion);
+        return subRegion.id >= 0 && subRegion.id < sectionEdges.size() ? sectionEdges.get(subRegion.id) : null;
+    }
+
+    public List<Portal> getPortals(SubRegion subRegion) {
+        return subRegionPortals.getOrDefault(subRegion, Collections.emptyList());
+    }
+
+    public int getPortalCount() {
+        return portals.size();
+    }
+
+    /**
+     * @return the number of portals that are entrances of the level, or of one above it
+     */
+    public int getPortalCount(int level) {
+        return (int) portals.stream().filter(p -> p.getLevel() >= level).count();
     }
 
     static int getRegionId(int x, int y) {
@@ -119,28 +1099,43 @@ public class HierarchicalGraph extends SimpleGraph {
         return getRegionId(vertex.getX(), vertex.getY());
     }
 
+    /**
+     * Connected area of a region, identified by a dense id across the whole graph once compiled.
+     */
     public static class SubRegion {
-        private final String id;
-        Map<Integer, Vertex> vertices = new HashMap<>();
+        int id = -1;
+        private final Region region;
+        private final int index;
+        final ArrayList<Vertex> vertices;
 
-        public SubRegion(String id) {
-            this.id = id;
+        SubRegion(Region region, int index) {
+            this(region, index, new ArrayList<>());
         }
 
-        void add(Vertex vertex) {
-            vertices.put(vertex.hashCode(), vertex);
+        /**
+         * Wraps vertices already assigned to the index in the region's tiles.
+         */
+        SubRegion(Region region, int index, ArrayList<Vertex> vertices) {
+            this.region = region;
+            this.index = index;
+            this.vertices = vertices;
         }
 
-        Vertex getVertex(int hashCode) {
-            return vertices.get(hashCode);
+        void add(Vertex vertex) {
+            vertices.add(vertex);
+            region.assign(vertex, index);
         }
 
         boolean contains(Vertex vertex) {
-            return vertices.containsKey(vertex.hashCode());
+            return region.getSubRegion(vertex) == this;
+        }
+
+        public int getId() {
+            return id;
         }
 
         public Collection<Vertex> getVertices() {
-            return vertices.values();
+            return vertices;
         }
 
         @Override
@@ -148,12 +1143,21 @@ public class HierarchicalGraph extends SimpleGraph {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             SubRegion subRegion = (SubRegion) o;
-            return id.equals(subRegion.id);
+            return id == subRegion.id && region.id == subRegion.region.id && index == subRegion.index;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(id);
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "SubRegion{" +
+                    "id=" + id +
+                    ", region=" + region.id +
+                    ", vertices=" + vertices.size() +
+                    '}';
         }
     }
 
@@ -162,16 +1166,22 @@ public class HierarchicalGraph extends SimpleGraph {
         final SubRegion destination;
         final double cost;
         final Requirement requirement;
+        final Edge edge;
 
-        SubRegionEdge(SubRegion origin, SubRegion destination, double cost, Requirement requirement) {
+        SubRegionEdge(SubRegion origin, SubRegion destination, double cost, Edge edge) {
             this.origin = origin;
             this.destination = destination;
             this.cost = cost;
-            this.requirement = requirement;
+            this.requirement = edge.getRequirement();
+            this.edge = edge;
         }
 
         public boolean canTraverse(RequirementContext context) {
-            return requirement == null || requirement.isMet(context);
+            return requirement == null || requirement.getCompiled().isMet(context);
+        }
+
+        public boolean canTraverse(RequirementMemo requirements) {
+            return requirement == null || requirements.isMet(requirement);
         }
 
         public SubRegion getDestination() {
@@ -183,14 +1193,184 @@ public class HierarchicalGraph extends SimpleGraph {
         }
     }
 
+    /**
+     * Entrance vertex of a sub region in the portal graph, and of every higher level cluster whose border it is on.
+     */
+    public static class Portal {
+        private final int id;
+        private final Vertex vertex;
+        private final SubRegion subRegion;
+        final ArrayList<PortalEdge> edges = new ArrayList<>(4);
+        final List<ArrayList<PortalEdge>> upperEdges = new ArrayList<>(0);
+
+        Portal(int id, Vertex vertex, SubRegion subRegion) {
+            this.id = id;
+            this.vertex = vertex;
+            this.subRegion = subRegion;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Vertex getVertex() {
+            return vertex;
+        }
+
+        public SubRegion getSubRegion() {
+            return subRegion;
+        }
+
+        public List<PortalEdge> getEdges() {
+            return edges;
+        }
+
+        public List<PortalEdge> getEdges(int level) {
+            return level == 0 ? edges : upperEdges.get(level - 1);
+        }
+
+        /**
+         * @return the highest level this portal is an entrance of
+         */
+        public int getLevel() {
+            return upperEdges.size();
+        }
+
+        ArrayList<PortalEdge> getOrAddEdges(int level) {
+            while (getLevel() < level) {
+                upperEdges.add(new ArrayList<>(4));
+            }
+            return level == 0 ? edges : upperEdges.get(level - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Portal{" +
+                    "id=" + id +
+                    ", vertex=" + vertex +
+                    ", level=" + getLevel() +
+                    '}';
+        }
+    }
+
+    /**
+     * Either a real {@link Edge} into another sub region, or a precomputed leg between two portals of the same cluster.
+     */
+    public static class PortalEdge {
+        final Portal origin;
+        final Portal destination;
+        final double cost;
+        final Edge edge;
+        final int level;
+
+        PortalEdge(Portal origin, Portal destination, double cost, Edge edge, int level) {
+            this.origin = origin;
+            this.destination = destination;
+            this.cost = cost;
+            this.edge = edge;
+            this.level = level;
+        }
+
+        public boolean canTraverse(RequirementContext context) {
+            return edge == null || edge.getRequirement() == null || edge.getRequirement().getCompiled().isMet(context);
+        }
+
+        public boolean canTraverse(RequirementMemo requirements) {
+            return edge == null || edge.getRequirement() == null || requirements.isMet(edge.getRequirement());
+        }
+
+        public Portal getOrigin() {
+            return origin;
+        }
+
+        public Portal getDestination() {
+            return destination;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        /**
+         * @return the level of the cluster a precomputed leg stays inside, where 0 is a single sub region
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the edge crossing into the destination's sub region, or null if this leg stays inside one sub region
+         */
+        public Edge getEdge() {
+            return edge;
+        }
+    }
+
+    /**
+     * Reusable per-thread state for searches confined to one region, indexed by {@link Region#getTileIndex(Vertex)}.
+     */
+    private static class LocalSearch {
+        final double[] costs = new double[Region.TILES];
+        final Vertex[] vertices = new Vertex[Region.TILES];
+        final IndexedMinHeap frontier = new IndexedMinHeap(Region.TILES);
+        final Vertex[] nearest = new Vertex[Region.TILES];
+        final int[] incomingStart = new int[Region.TILES];
+        final int[] incomingEnd = new int[Region.TILES];
+        Edge[] incomingEdges = new Edge[0];
+        private final int[] seen = new int[Region.TILES];
+        private final int[] targets = new int[Region.TILES];
+        private int generation;
+
+        void reset() {
+            frontier.clear();
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                Arrays.fill(targets, 0);
+                generation = 1;
+            }
+        }
+
+        boolean isSeen(int tile) {
+            return seen[tile] == generation;
+        }
+
+        void visit(int tile, double cost, Vertex vertex) {
+            seen[tile] = generation;
+            costs[tile] = cost;
+            vertices[tile] = vertex;
+            frontier.offer(tile, cost);
+        }
+
+        /**
+         * @return false if the tile was already a target
+         */
+        boolean setTarget(int tile) {
+            if (targets[tile] == generation) {
+                return false;
+            }
+            targets[tile] = generation;
+            return true;
+        }
+
+        boolean isTarget(int tile) {
+            return targets[tile] == generation;
+        }
+    }
+
     static class Region {
         private final int id;
         private final int baseX;
         private final int baseY;
         final static int WIDTH = 64;
         final static int HEIGHT = 64;
+        private final static int PLANES = 4;
+        final static int TILES = WIDTH * HEIGHT * PLANES;
 
         List<SubRegion> subRegions = new ArrayList<>();
+        /**
+         * Index + 1 of the sub region each tile belongs to, per plane, with 0 for tiles without a vertex
+         */
+        private final int[][] tiles = new int[PLANES][];
 
         public Region(int id) {
             this.id = id;
@@ -198,6 +1378,15 @@ public class HierarchicalGraph extends SimpleGraph {
             this.baseY = (id & 0xFF) << 6;
         }
 
+        /**
+         * @return an empty region sharing this one's tiles, for sub regions that wrap this one's in the same order
+         */
+        Region copy() {
+            Region region = new Region(id);
+            System.arraycopy(tiles, 0, region.tiles, 0, PLANES);
+            return region;
+        }
+
         public int getBaseX() {
             return baseX;
         }
@@ -206,12 +1395,40 @@ public class HierarchicalGraph extends SimpleGraph {
             return baseY;
         }
 
+        boolean isWithin(Vertex vertex) {
+            return isWithin(vertex.getX(), vertex.getY());
+        }
+
+        private boolean isWithin(int x, int y) {
+            return x >= baseX && y >= baseY && x < baseX + WIDTH && y < baseY + HEIGHT;
+        }
+
+        /**
+         * @return a dense index of the vertex's tile within this region, below {@link #TILES}
+         */
+        int getTileIndex(Vertex vertex) {
+            return (vertex.getZ() * HEIGHT + vertex.getY() - baseY) * WIDTH + vertex.getX() - baseX;
+        }
+
+        void assign(Vertex vertex, int index) {
+            int[] plane = tiles[vertex.getZ()];
+            if (plane == null) {
+                plane = tiles[vertex.getZ()] = new int[WIDTH * HEIGHT];
+            }
+            plane[(vertex.getY() - baseY) * WIDTH + vertex.getX() - baseX] = index + 1;
+        }
+
         SubRegion getSubRegion(Vertex vertex) {
-            return subRegions.stream().filter(s -> s.contains(vertex)).findAny().orElse(null);
+            return getSubRegion(vertex.getX(), vertex.getY(), vertex.getZ());
         }
 
         SubRegion getSubRegion(int x, int y, int z) {
-            return subRegions.stream().filter(s -> s.vertices.containsKey(Vertex.hashCode(x, y, z))).findAny().orElse(null);
+            if (!isWithin(x, y) || z < 0 || z >= PLANES) {
+                return null;
+            }
+            int[] plane = tiles[z];
+            int index = plane == null ? 0 : plane[(y - baseY) * WIDTH + x - baseX];
+            return index == 0 ? null : subRegions.get(index - 1);
         }
 
         public List<SubRegion> getSubRegions() {
@@ -223,7 +1440,7 @@ public class HierarchicalGraph extends SimpleGraph {
         }
 
         boolean contains(Vertex vertex) {
-            return subRegions.stream().anyMatch(s -> s.contains(vertex));
+            return getSubRegion(vertex) != null;
         }
     }
 
@@ -233,8 +1450,10 @@ public class HierarchicalGraph extends SimpleGraph {
                 "vertices=" + getVertexCount() +
                 ", edges=" + getEdgeCount() +
                 ", regions=" + regions.size() +
-                ", subRegions=" + regions.values().stream().mapToInt(r -> r.getSubRegions().size()).sum() +
-                ", sectionEdges=" + sectionEdges.values().stream().mapToInt(Collection::size).sum() +
+                ", subRegions=" + subRegions.size() +
+                ", sectionEdges=" + sectionEdges.stream().mapToInt(Collection::size).sum() +
+                ", portals=" + portals.size() +
+                ", levels=" + Arrays.toString(levelSizes) +
                 '}';
     }
 }
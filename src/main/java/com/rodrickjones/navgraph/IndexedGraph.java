@@ -0,0 +1,134 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.vertices.Vertex;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Read only {@link Graph} addressing vertices by a dense index into the sorted array of their packed ids,
+ * with the outgoing edges of vertex {@code i} occupying {@code [getEdgeStart(i), getEdgeEnd(i))}.
+ */
+public interface IndexedGraph extends Graph {
+    int NO_REQUIREMENT = -1;
+
+    /**
+     * @return the dense index of the vertex with the given packed id, or a negative value if it is not in this graph
+     */
+    int indexOf(int vertexId);
+
+    default int indexOf(Vertex vertex) {
+        return indexOf(vertex.hashCode());
+    }
+
+    int getVertexId(int index);
+
+    default Vertex getVertexAt(int index) {
+        return new Vertex(getVertexId(index));
+    }
+
+    int getEdgeStart(int index);
+
+    int getEdgeEnd(int index);
+
+    int getEdgeDestination(int edge);
+
+    float getEdgeCost(int edge);
+
+    /**
+     * @return the id of the edge's {@link Requirement}, or {@link #NO_REQUIREMENT}
+     */
+    int getEdgeRequirementId(int edge);
+
+    default Requirement getEdgeRequirement(int edge) {
+        int requirement = getEdgeRequirementId(edge);
+        return requirement == NO_REQUIREMENT ? null : getRequirement(requirement);
+    }
+
+    Requirement getRequirement(int requirementId);
+
+    int getRequirementCount();
+
+    /**
+     * @return the origin index of the edge, found by a binary search over the row offsets
+     */
+    default int getEdgeOrigin(int edge) {
+        int low = 0;
+        int high = getVertexCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getEdgeStart(mid) <= edge) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return true if the edge is not a {@link com.rodrickjones.navgraph.edges.BasicEdge} and is kept as its original instance
+     */
+    boolean isSpecialEdge(int edge);
+
+    default Edge getEdge(int edge) {
+        return getEdge(getEdgeOrigin(edge), edge);
+    }
+
+    Edge getEdge(int originIndex, int edge);
+
+    @Override
+    default Collection<Vertex> getVertices() {
+        return new AbstractList<Vertex>() {
+            @Override
+            public Vertex get(int index) {
+                return getVertexAt(index);
+            }
+
+            @Override
+            public int size() {
+                return getVertexCount();
+            }
+        };
+    }
+
+    @Override
+    default Vertex getVertex(int x, int y, int z) {
+        int index = indexOf(Vertex.hashCode(x, y, z));
+        return index < 0 ? null : getVertexAt(index);
+    }
+
+    @Override
+    default Collection<Edge> getEdges() {
+        return new AbstractList<Edge>() {
+            @Override
+            public Edge get(int index) {
+                return getEdge(index);
+            }
+
+            @Override
+            public int size() {
+                return getEdgeCount();
+            }
+        };
+    }
+
+    @Override
+    default Collection<Edge> getEdges(Vertex vertex) {
+        int index = indexOf(vertex);
+        if (index < 0) {
+            return null;
+        }
+        int start = getEdgeStart(index);
+        int end = getEdgeEnd(index);
+        List<Edge> edges = new ArrayList<>(end - start);
+        for (int edge = start; edge < end; edge++) {
+            edges.add(getEdge(index, edge));
+        }
+        return edges;
+    }
+}
@@ -0,0 +1,302 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.edges.EdgeReader;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementReader;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Read only {@link IndexedGraph} over a memory mapped file, using the same rows as {@link CompactGraph}.
+ * Adjacency is read straight from the mapped pages, so opening the file costs nothing beyond parsing the
+ * requirement table and the few non-basic edges, the graph lives outside the Java heap and the page cache is
+ * shared between processes mapping the same file.
+ * <p>
+ * Layout: a header of {@code MAGIC, VERSION, vertexCount, edgeCount, requirementCount, specialEdgeCount}
+ * followed by {@code int vertexIds[vertexCount]}, {@code int edgeOffsets[vertexCount + 1]},
+ * {@code int edgeDestinations[edgeCount]}, {@code float edgeCosts[edgeCount]},
+ * {@code int edgeRequirements[edgeCount]}, the serialized requirements and the special edges, each preceded by
+ * its edge index. Values are big endian as written by {@link DataOutputStream}.
+ */
+@Slf4j
+public class MappedGraph implements IndexedGraph {
+    private static final int MAGIC = 0x4e474d47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+
+    private final int vertexCount;
+    private final int edgeCount;
+    private final IntBuffer vertexIds;
+    private final IntBuffer edgeOffsets;
+    private final IntBuffer edgeDestinations;
+    private final FloatBuffer edgeCosts;
+    private final IntBuffer edgeRequirements;
+    private final Requirement[] requirements;
+    private final int[] specialEdgeIndices;
+    private final Edge[] specialEdges;
+
+    private MappedGraph(ByteBuffer buffer, int vertexCount, int edgeCount,
+                        Requirement[] requirements, int[] specialEdgeIndices, Edge[] specialEdges) {
+        this.vertexCount = vertexCount;
+        this.edgeCount = edgeCount;
+        int position = HEADER_SIZE;
+        vertexIds = slice(buffer, position, vertexCount).asIntBuffer();
+        position += vertexCount * Integer.BYTES;
+        edgeOffsets = slice(buffer, position, vertexCount + 1).asIntBuffer();
+        position += (vertexCount + 1) * Integer.BYTES;
+        edgeDestinations = slice(buffer, position, edgeCount).asIntBuffer();
+        position += edgeCount * Integer.BYTES;
+        edgeCosts = slice(buffer, position, edgeCount).asFloatBuffer();
+        position += edgeCount * Float.BYTES;
+        edgeRequirements = slice(buffer, position, edgeCount).asIntBuffer();
+        this.requirements = requirements;
+        this.specialEdgeIndices = specialEdgeIndices;
+        this.specialEdges = specialEdges;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int count) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + count * Integer.BYTES);
+        return duplicate.slice();
+    }
+
+    public static void writeToFile(IndexedGraph graph, File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            int vertexCount = graph.getVertexCount();
+            int edgeCount = graph.getEdgeCount();
+            int specialEdgeCount = 0;
+            for (int edge = 0; edge < edgeCount; edge++) {
+                if (graph.isSpecialEdge(edge)) {
+                    specialEdgeCount++;
+                }
+            }
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(vertexCount);
+            dos.writeInt(edgeCount);
+            dos.writeInt(graph.getRequirementCount());
+            dos.writeInt(specialEdgeCount);
+            for (int i = 0; i < vertexCount; i++) {
+                dos.writeInt(graph.getVertexId(i));
+            }
+            for (int i = 0; i < vertexCount; i++) {
+                dos.writeInt(graph.getEdgeStart(i));
+            }
+            dos.writeInt(edgeCount);
+            for (int edge = 0; edge < edgeCount; edge++) {
+                dos.writeInt(graph.getEdgeDestination(edge));
+            }
+            for (int edge = 0; edge < edgeCount; edge++) {
+                dos.writeFloat(graph.getEdgeCost(edge));
+            }
+            for (int edge = 0; edge < edgeCount; edge++) {
+                dos.writeInt(graph.getEdgeRequirementId(edge));
+            }
+            for (int i = 0; i < graph.getRequirementCount(); i++) {
+                graph.getRequirement(i).writeToDataStream(dos);
+            }
+            if (specialEdgeCount > 0) {
+                for (int origin = 0; origin < vertexCount; origin++) {
+                    for (int edge = graph.getEdgeStart(origin); edge < graph.getEdgeEnd(origin); edge++) {
+                        if (graph.isSpecialEdge(edge)) {
+                            dos.writeInt(edge);
+                            graph.getEdge(origin, edge).writeToDataStream(dos);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public static MappedGraph readFromFile(File file, EdgeReader edgeReader, RequirementReader requirementReader) throws IOException {
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException(file + " is too large to map, size=" + channel.size());
+            }
+            //The mapping stays valid after the channel is closed, and is released once the buffer is collected
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IllegalStateException(file + " is not a mapped graph");
+            }
+            int version = buffer.getInt(Integer.BYTES);
+            if (version != VERSION) {
+                throw new IllegalStateException("Version mismatch: File=" + version + ", MappedGraph=" + VERSION);
+            }
+            int vertexCount = buffer.getInt(2 * Integer.BYTES);
+            int edgeCount = buffer.getInt(3 * Integer.BYTES);
+            int requirementCount = buffer.getInt(4 * Integer.BYTES);
+            int specialEdgeCount = buffer.getInt(5 * Integer.BYTES);
+            long rowsEnd = HEADER_SIZE + (2L * vertexCount + 1 + 3L * edgeCount) * Integer.BYTES;
+            if (rowsEnd > buffer.limit()) {
+                throw new IllegalStateException(file + " is truncated");
+            }
+
+            Requirement[] requirements = new Requirement[requirementCount];
+            int[] specialEdgeIndices = new int[specialEdgeCount];
+            Edge[] specialEdges = new Edge[specialEdgeCount];
+            channel.position(rowsEnd);
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            for (int i = 0; i < requirementCount; i++) {
+                requirements[i] = requirementReader.readRequirement(dis);
+            }
+            for (int i = 0; i < specialEdgeCount; i++) {
+                specialEdgeIndices[i] = dis.readInt();
+                specialEdges[i] = edgeReader.readEdge(dis, requirementReader);
+            }
+
+            MappedGraph graph = new MappedGraph(buffer, vertexCount, edgeCount, requirements, specialEdgeIndices, specialEdges);
+            log.debug("Mapped {} in {}ms", graph, System.currentTimeMillis() - start);
+            return graph;
+        }
+    }
+
+    /**
+     * @return true if the file starts with the {@link MappedGraph} magic number
+     */
+    public static boolean isMappedGraph(File file) {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return dis.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int indexOf(int vertexId) {
+        int low = 0;
+        int high = vertexCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = vertexIds.get(mid);
+            if (id < vertexId) {
+                low = mid + 1;
+            } else if (id > vertexId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getVertexId(int index) {
+        return vertexIds.get(index);
+    }
+
+    @Override
+    public int getEdgeStart(int index) {
+        return edgeOffsets.get(index);
+    }
+
+    @Override
+    public int getEdgeEnd(int index) {
+        return edgeOffsets.get(index + 1);
+    }
+
+    @Override
+    public int getEdgeDestination(int edge) {
+        return edgeDestinations.get(edge);
+    }
+
+    @Override
+    public float getEdgeCost(int edge) {
+        return edgeCosts.get(edge);
+    }
+
+    @Override
+    public int getEdgeRequirementId(int edge) {
+        return edgeRequirements.get(edge);
+    }
+
+    @Override
+    public Requirement getRequirement(int requirementId) {
+        return requirements[requirementId];
+    }
+
+    @Override
+    public int getRequirementCount() {
+        return requirements.length;
+    }
+
+    @Override
+    public boolean isSpecialEdge(int edge) {
+        return specialEdgeIndices.length > 0 && Arrays.binarySearch(specialEdgeIndices, edge) >= 0;
+    }
+
+    @Override
+    public Edge getEdge(int originIndex, int edge) {
+        if (specialEdgeIndices.length > 0) {
+            int special = Arrays.binarySearch(specialEdgeIndices, edge);
+            if (special >= 0) {
+                return specialEdges[special];
+            }
+        }
+        return new BasicEdge(getVertexAt(originIndex), getVertexAt(getEdgeDestination(edge)), getEdgeCost(edge),
+                getEdgeRequirement(edge));
+    }
+
+    @Override
+    public void addVertex(Vertex vertex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void addVertices(Collection<Vertex> vertices) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public void addEdge(Edge edge) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void addEdges(Collection<Edge> edges) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void removeEdge(Edge edge) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public Collection<Edge> removeVertex(Vertex vertex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedGraph{" +
+                "vertices=" + vertexCount +
+                ", edges=" + edgeCount +
+                ", requirements=" + requirements.length +
+                '}';
+    }
+}
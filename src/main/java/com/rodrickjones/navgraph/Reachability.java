@@ -0,0 +1,296 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
+import com.rodrickjones.navgraph.vertices.Vertex;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers "is there no path" for a {@link HierarchicalGraph} without searching.
+ * <p>
+ * Sub regions joined by requirement free section edges, in either direction, form components. Section edges with a
+ * requirement link components, and for each combination of met link requirements, the context fingerprint, the
+ * merged components are computed once and cached. Sub regions in different merged components cannot reach each other.
+ * <p>
+ * Sub regions are flood filled along outgoing edges rather than strongly connected, so the remaining no-path
+ * answers, once proven by an exact search, are cached per origin vertex and destinations together with the answers of
+ * the requirements that search evaluated. A later query meeting exactly those requirements would search the same way.
+ */
+public class Reachability {
+    private static final int MAX_MERGES = 256;
+    private static final int MAX_UNREACHABLE = 4096;
+    private static final int MAX_ANSWERS = 8;
+
+    private final int[] components;
+    private final int componentCount;
+    private final Requirement[] linkRequirements;
+    private final int[][] links;
+    private final Map<Fingerprint, int[]> merges = new ConcurrentHashMap<>();
+    private final Map<UnreachableKey, Answers[]> unreachable = Collections.synchronizedMap(
+            new LinkedHashMap<UnreachableKey, Answers[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UnreachableKey, Answers[]> eldest) {
+                    return size() > MAX_UNREACHABLE;
+                }
+            });
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+
+    Reachability(HierarchicalGraph graph) {
+        int subRegionCount = graph.getSubRegionCount();
+        int[] parents = new int[subRegionCount];
+        for (int i = 0; i < subRegionCount; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < subRegionCount; i++) {
+            for (HierarchicalGraph.SubRegionEdge edge : graph.getEdges(graph.getSubRegion(i))) {
+                if (edge.requirement == null && edge.destination != null) {
+                    union(parents, i, edge.destination.id);
+                }
+            }
+        }
+        components = new int[subRegionCount];
+        Map<Integer, Integer> componentIds = new HashMap<>();
+        for (int i = 0; i < subRegionCount; i++) {
+            components[i] = componentIds.computeIfAbsent(find(parents, i), k -> componentIds.size());
+        }
+        componentCount = componentIds.size();
+
+        //Distinct component pairs per link requirement
+        Map<Requirement, Set<Long>> requirementLinks = new LinkedHashMap<>();
+        for (int i = 0; i < subRegionCount; i++) {
+            for (HierarchicalGraph.SubRegionEdge edge : graph.getEdges(graph.getSubRegion(i))) {
+                if (edge.requirement != null && edge.destination != null) {
+                    int from = components[i];
+                    int to = components[edge.destination.id];
+                    if (from != to) {
+                        requirementLinks.computeIfAbsent(edge.requirement, k -> new HashSet<>())
+                                .add((long) Math.min(from, to) << 32 | Math.max(from, to));
+                    }
+                }
+            }
+        }
+        linkRequirements = requirementLinks.keySet().toArray(new Requirement[0]);
+        links = new int[linkRequirements.length][];
+        for (int i = 0; i < linkRequirements.length; i++) {
+            Set<Long> pairs = requirementLinks.get(linkRequirements[i]);
+            int[] flat = new int[pairs.size() * 2];
+            int j = 0;
+            for (long pair : pairs) {
+                flat[j++] = (int) (pair >>> 32);
+                flat[j++] = (int) pair;
+            }
+            links[i] = flat;
+        }
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA != rootB) {
+            parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /**
+     * Evaluates each link requirement once through the memo, then compares merged components.
+     * @return false if no destination sub region can be reached from the origin's, true if one might be
+     */
+    public boolean mayReach(HierarchicalGraph.SubRegion origin, Collection<HierarchicalGraph.SubRegion> destinations,
+                            RequirementMemo memo) {
+        Fingerprint fingerprint = fingerprint(linkRequirements, memo);
+        int[] merged = merges.get(fingerprint);
+        if (merged == null) {
+            merged = merge(fingerprint);
+        }
+        int component = merged[components[origin.getId()]];
+        for (HierarchicalGraph.SubRegion destination : destinations) {
+            if (merged[components[destination.getId()]] == component) {
+                return true;
+            }
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    private int[] merge(Fingerprint fingerprint) {
+        int[] parents = new int[componentCount];
+        for (int i = 0; i < componentCount; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < linkRequirements.length; i++) {
+            if (fingerprint.isSet(i)) {
+                int[] pairs = links[i];
+                for (int j = 0; j < pairs.length; j += 2) {
+                    union(parents, pairs[j], pairs[j + 1]);
+                }
+            }
+        }
+        for (int i = 0; i < componentCount; i++) {
+            parents[i] = find(parents, i);
+        }
+        if (merges.size() >= MAX_MERGES) {
+            merges.clear();
+        }
+        merges.put(fingerprint, parents);
+        return parents;
+    }
+
+    /**
+     * Evaluates through the memo only the requirements of the searches cached for the same origin and destinations.
+     * @return true if an exact search of the same query, under a context meeting the same requirements it evaluated,
+     * already found no path
+     */
+    public boolean isKnownUnreachable(Vertex origin, Collection<Vertex> destinations, RequirementMemo memo) {
+        Answers[] cached = unreachable.get(new UnreachableKey(origin, destinations));
+        if (cached == null) {
+            return false;
+        }
+        for (Answers answers : cached) {
+            if (answers.matches(memo)) {
+                cacheHits.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Must only be called once an exact search found no path, with the memo every requirement of that query was
+     * evaluated through.
+     */
+    public void addUnreachable(Vertex origin, Collection<Vertex> destinations, RequirementMemo memo) {
+        Answers answers = new Answers(memo);
+        unreachable.merge(new UnreachableKey(origin, destinations), new Answers[]{answers}, (cached, added) -> {
+            Answers[] merged = Arrays.copyOf(cached, Math.min(cached.length + 1, MAX_ANSWERS));
+            merged[merged.length - 1] = answers;
+            return merged;
+        });
+    }
+
+    private static Fingerprint fingerprint(Requirement[] requirements, RequirementMemo memo) {
+        long[] bits = new long[(requirements.length + 63) >>> 6];
+        for (int i = 0; i < requirements.length; i++) {
+            if (memo.isMet(requirements[i])) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return new Fingerprint(bits);
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * @return the number of queries {@link #mayReach} rejected
+     */
+    public int getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of queries answered by the no-path cache
+     */
+    public int getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Reachability{" +
+                "components=" + componentCount +
+                ", linkRequirements=" + linkRequirements.length +
+                ", rejected=" + rejected +
+                ", cacheHits=" + cacheHits +
+                '}';
+    }
+
+    private static class Fingerprint {
+        private final long[] bits;
+        private final int hash;
+
+        Fingerprint(long[] bits) {
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        boolean isSet(int index) {
+            return (bits[index >>> 6] & 1L << index) != 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Fingerprint && Arrays.equals(bits, ((Fingerprint) o).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The requirements a failed search evaluated and their answers.
+     */
+    private static class Answers {
+        private final Requirement[] requirements;
+        private final boolean[] met;
+
+        Answers(RequirementMemo memo) {
+            requirements = new Requirement[memo.getEvaluations()];
+            met = new boolean[requirements.length];
+            for (int i = 0; i < requirements.length; i++) {
+                requirements[i] = memo.getEvaluated(i);
+                met[i] = memo.wasMet(i);
+            }
+        }
+
+        boolean matches(RequirementMemo memo) {
+            for (int i = 0; i < requirements.length; i++) {
+                if (memo.isMet(requirements[i]) != met[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class UnreachableKey {
+        private final int origin;
+        private final int[] destinations;
+
+        UnreachableKey(Vertex origin, Collection<Vertex> destinations) {
+            this.origin = origin.hashCode();
+            this.destinations = destinations.stream().mapToInt(Vertex::hashCode).sorted().distinct().toArray();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof UnreachableKey)) {
+                return false;
+            }
+            UnreachableKey that = (UnreachableKey) o;
+            return origin == that.origin && Arrays.equals(destinations, that.destinations);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * origin + Arrays.hashCode(destinations);
+        }
+    }
+}
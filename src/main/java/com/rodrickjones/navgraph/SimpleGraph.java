@@ -1,16 +1,20 @@
 package com.rodrickjones.navgraph;
 
 import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.util.CopyOnWriteMap;
 import com.rodrickjones.navgraph.vertices.Vertex;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 @Slf4j
 public class SimpleGraph implements Graph {
-    private final Map<Integer, Vertex> vertices;
-    private final Map<Vertex, Collection<Edge>> edges;
+    private Map<Integer, Vertex> vertices;
+    private Map<Vertex, Collection<Edge>> edges;
+    private Map<Vertex, Collection<Edge>> incomingEdges;
 
     public SimpleGraph() {
         this(3000000, 12000000);
@@ -27,6 +31,37 @@ public class SimpleGraph implements Graph {
         addEdges(edges);
     }
 
+    /**
+     * Replaces this graph's vertices and edges with copy-on-write views of the source's, which share every vertex
+     * and adjacency list until this graph changes it. The source must not change afterwards.
+     */
+    protected void shareAdjacency(SimpleGraph source) {
+        vertices = new CopyOnWriteMap<>(source.vertices, UnaryOperator.identity());
+        edges = new CopyOnWriteMap<>(source.edges, SimpleGraph::copyEdges);
+        incomingEdges = source.incomingEdges == null ? null : new CopyOnWriteMap<>(source.incomingEdges, SimpleGraph::copyEdges);
+    }
+
+    private static Collection<Edge> copyEdges(Collection<Edge> edges) {
+        return edges instanceof LinkedHashSet ? new LinkedHashSet<>(edges) : new ArrayList<>(edges);
+    }
+
+    /**
+     * @return the edges of the vertex in the map, which may be modified without affecting a graph they are shared with
+     */
+    private static Collection<Edge> getMutableEdges(Map<Vertex, Collection<Edge>> map, Vertex vertex) {
+        return map instanceof CopyOnWriteMap ? ((CopyOnWriteMap<Vertex, Collection<Edge>>) map).getMutable(vertex) : map.get(vertex);
+    }
+
+    private static Collection<Edge> getOrAddMutableEdges(Map<Vertex, Collection<Edge>> map, Vertex vertex,
+                                                         Function<Vertex, Collection<Edge>> factory) {
+        Collection<Edge> edges = getMutableEdges(map, vertex);
+        if (edges == null) {
+            edges = factory.apply(vertex);
+            map.put(vertex, edges);
+        }
+        return edges;
+    }
+
     public void cleanUp() {
         List<Vertex> verticesToRemove = vertices.values().stream().filter(v -> !edges.containsKey(v)).collect(Collectors.toList());
         for (Vertex vertex : verticesToRemove) {
@@ -34,15 +69,21 @@ public class SimpleGraph implements Graph {
             edges.remove(vertex);
         }
         int removedEdges = 0;
-        for (Collection<Edge> edgeCollection : edges.values()) {
-            List<Edge> toRemove = edgeCollection.stream().filter(edge -> !vertices.containsKey(edge.getDestination().hashCode())).collect(Collectors.toList());
+        for (Vertex origin : new ArrayList<>(edges.keySet())) {
+            List<Edge> toRemove = edges.get(origin).stream().filter(edge -> !vertices.containsKey(edge.getDestination().hashCode())).collect(Collectors.toList());
+            if (toRemove.isEmpty()) {
+                continue;
+            }
             removedEdges += toRemove.size();
+            Collection<Edge> edgeCollection = getMutableEdges(edges, origin);
             edgeCollection.removeAll(toRemove);
             if (edgeCollection instanceof ArrayList) {
                 ((ArrayList<Edge>) edgeCollection).trimToSize();
             }
         }
-        edges.values().forEach(e1 -> e1.removeIf(e -> !vertices.containsKey(e.getDestination().hashCode())));
+        if (incomingEdges != null) {
+            indexIncomingEdges();
+        }
         log.info(verticesToRemove.size() + " orphaned vertices removed");
         log.info(removedEdges + " invalid edges removed");
     }
@@ -64,7 +105,7 @@ public class SimpleGraph implements Graph {
 
     @Override
     public void addVertices(Collection<Vertex> vertices) {
-        //TODO Optimize this by making it one addAll call instead
+        //Checked one at a time, see addTrusted for loading input that is known to be valid
         for (Vertex vertex : vertices) {
             addVertex(vertex);
         }
@@ -91,9 +132,34 @@ public class SimpleGraph implements Graph {
         return edges.get(vertex);
     }
 
+    /**
+     * Builds the reverse edge index used by {@link #getIncomingEdges(Vertex)}.
+     * Edges added afterwards are indexed as they are added.
+     */
+    public void indexIncomingEdges() {
+        incomingEdges = new HashMap<>(vertices.size());
+        for (Collection<Edge> edgeCollection : edges.values()) {
+            for (Edge edge : edgeCollection) {
+                incomingEdges.computeIfAbsent(edge.getDestination(), k -> new ArrayList<>(4)).add(edge);
+            }
+        }
+    }
+
+    public boolean hasIncomingEdgeIndex() {
+        return incomingEdges != null;
+    }
+
+    @Override
+    public Collection<Edge> getIncomingEdges(Vertex vertex) {
+        if (incomingEdges == null) {
+            throw new IllegalStateException("Incoming edges are not indexed, call indexIncomingEdges() first");
+        }
+        return incomingEdges.get(vertex);
+    }
+
     @Override
     public void addEdges(Collection<Edge> edges) {
-        //TODO Optimize this by making it one addAll call instead
+        //Checked one at a time, see addTrusted for loading input that is known to be valid
         for (Edge edge : edges) {
             addEdge(edge);
         }
@@ -105,7 +171,7 @@ public class SimpleGraph implements Graph {
             throw new IllegalArgumentException("Cannot add a null Edge to a " + getClass().getSimpleName());
         }
         Vertex vertex = edge.getOrigin();
-        Collection<Edge> edges = this.edges.computeIfAbsent(vertex, k -> new LinkedHashSet<>(4));
+        Collection<Edge> edges = getOrAddMutableEdges(this.edges, vertex, k -> new LinkedHashSet<>(4));
         Optional<Edge> conflict;
         if (edges.contains(edge)) {
             throw new IllegalStateException(edge + " already exists for " + vertex);
@@ -113,6 +179,143 @@ public class SimpleGraph implements Graph {
             throw new IllegalStateException("Conflicting edge exists for " + vertex + ", existing=" + conflict.get() + ", new=" + edge);
         }
         edges.add(edge);
+        if (incomingEdges != null) {
+            getOrAddMutableEdges(incomingEdges, edge.getDestination(), k -> new ArrayList<>(4)).add(edge);
+        }
+    }
+
+    @Override
+    public void removeEdge(Edge edge) {
+        Vertex origin = edge.getOrigin();
+        Collection<Edge> edges = getMutableEdges(this.edges, origin);
+        if (edges == null || !edges.remove(edge)) {
+            throw new IllegalStateException(edge + " does not exist for " + origin);
+        }
+        if (edges.isEmpty()) {
+            this.edges.remove(origin);
+        }
+        if (incomingEdges != null) {
+            Collection<Edge> incoming = getMutableEdges(incomingEdges, edge.getDestination());
+            if (incoming != null) {
+                incoming.remove(edge);
+            }
+        }
+    }
+
+    /**
+     * Without an incoming edge index this scans every edge of the graph for the ones entering the vertex.
+     */
+    @Override
+    public Collection<Edge> removeVertex(Vertex vertex) {
+        if (vertices.remove(vertex.hashCode()) == null) {
+            throw new IllegalStateException(vertex + " does not exist in Graph");
+        }
+        List<Edge> removed = new ArrayList<>();
+        Collection<Edge> outgoing = edges.remove(vertex);
+        if (outgoing != null) {
+            removed.addAll(outgoing);
+        }
+        List<Edge> incoming = new ArrayList<>();
+        if (incomingEdges != null) {
+            Collection<Edge> indexed = incomingEdges.remove(vertex);
+            if (indexed != null) {
+                incoming.addAll(indexed);
+            }
+        } else {
+            for (Collection<Edge> edgeCollection : edges.values()) {
+                for (Edge edge : edgeCollection) {
+                    if (edge.getDestination().equals(vertex)) {
+                        incoming.add(edge);
+                    }
+                }
+            }
+        }
+        for (Edge edge : incoming) {
+            //Self loops already left with the outgoing edges
+            if (!edge.getOrigin().equals(vertex)) {
+                removeEdge(edge);
+                removed.add(edge);
+            }
+        }
+        if (incomingEdges != null && outgoing != null) {
+            for (Edge edge : outgoing) {
+                Collection<Edge> entering = getMutableEdges(incomingEdges, edge.getDestination());
+                if (entering != null) {
+                    entering.remove(edge);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Adds vertices and edges known to be valid, such as those of a graph zip written by this library, without the
+     * null, duplicate and conflict checks of {@link #addVertex(Vertex)} and {@link #addEdge(Edge)}.
+     * An empty graph is resized to fit, and each run of edges sharing an origin goes into an exactly sized list.
+     * Use {@link #validate()} afterwards when the input is not trusted.
+     */
+    public void addTrusted(Collection<Vertex> vertices, Collection<Edge> edges) {
+        if (this.vertices.isEmpty()) {
+            this.vertices = new HashMap<>(capacityFor(vertices.size()));
+        }
+        if (this.edges.isEmpty()) {
+            //Sized for one adjacency list per vertex, as edges are usually loaded alongside their vertices
+            this.edges = new HashMap<>(capacityFor(vertices.size()));
+        }
+        for (Vertex vertex : vertices) {
+            this.vertices.put(vertex.hashCode(), vertex);
+        }
+        Edge[] run = edges.toArray(new Edge[0]);
+        int start = 0;
+        while (start < run.length) {
+            Vertex origin = run[start].getOrigin();
+            int end = start + 1;
+            while (end < run.length && run[end].getOrigin().equals(origin)) {
+                end++;
+            }
+            Collection<Edge> existing = getMutableEdges(this.edges, origin);
+            if (existing == null) {
+                this.edges.put(origin, new ArrayList<>(Arrays.asList(run).subList(start, end)));
+            } else {
+                existing.addAll(Arrays.asList(run).subList(start, end));
+            }
+            if (incomingEdges != null) {
+                for (int i = start; i < end; i++) {
+                    getOrAddMutableEdges(incomingEdges, run[i].getDestination(), k -> new ArrayList<>(4)).add(run[i]);
+                }
+            }
+            start = end;
+        }
+    }
+
+    private static int capacityFor(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    /**
+     * Checks what {@link #addTrusted(Collection, Collection)} skips: every edge must start at its own key, reach a
+     * known vertex, and be the only edge between its origin and destination.
+     * @throws IllegalStateException on the first invalid edge found
+     */
+    public void validate() {
+        for (Map.Entry<Vertex, Collection<Edge>> entry : edges.entrySet()) {
+            Vertex origin = entry.getKey();
+            Set<Vertex> destinations = new HashSet<>(entry.getValue().size() * 2);
+            for (Edge edge : entry.getValue()) {
+                if (edge == null) {
+                    throw new IllegalStateException("Null edge for " + origin);
+                }
+                if (!edge.getOrigin().equals(origin)) {
+                    throw new IllegalStateException(edge + " is stored under " + origin);
+                }
+                if (!vertices.containsKey(edge.getDestination().hashCode())) {
+                    throw new IllegalStateException(edge + " leads to an unknown vertex");
+                }
+                if (!destinations.add(edge.getDestination())) {
+                    throw new IllegalStateException("Conflicting edge exists for " + origin + ", edge=" + edge);
+                }
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,505 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.edges.EdgeReader;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementReader;
+import com.rodrickjones.navgraph.util.IntList;
+import com.rodrickjones.navgraph.util.VarInts;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Read only {@link Graph} over a file of region tiles, keyed by the 64x64 region id of {@link HierarchicalGraph}.
+ * A tile's vertices and edges are decoded on first access and kept in an LRU cache, tiles are evicted once the
+ * estimated heap use of the resident tiles exceeds the memory budget. Only the tile index and requirement table
+ * stay resident.
+ * <p>
+ * Layout: a header of {@code MAGIC, VERSION, vertexCount, edgeCount, requirementCount, tileCount}, the serialized
+ * requirements, an index of {@code regionId, offset, length, edgeCount} per tile sorted by region id,
+ * then the tiles. A tile holds its sorted vertex ids as varint deltas followed by the edges of each vertex, in the
+ * layout of {@link com.rodrickjones.navgraph.util.GraphIO} version 2.
+ */
+@Slf4j
+public class TiledGraph implements Graph, Closeable {
+    private static final int MAGIC = 0x4e475447;
+    private static final int VERSION = 1;
+    private static final int INDEX_ENTRY_SIZE = 3 * Integer.BYTES + Long.BYTES;
+    private static final int COMPACT_EDGE = 0;
+    private static final int RECORD_EDGE = 1;
+    /**
+     * Approximate heap use of a decoded vertex and edge, including their instances and array slots
+     */
+    private static final int VERTEX_BYTES = 32;
+    private static final int EDGE_BYTES = 64;
+
+    private final FileChannel channel;
+    private final EdgeReader edgeReader;
+    private final RequirementReader requirementReader;
+    private final int vertexCount;
+    private final int edgeCount;
+    private final Requirement[] requirements;
+    private final int[] tileRegionIds;
+    private final long[] tileOffsets;
+    private final int[] tileLengths;
+    private final int[] tileEdgeCounts;
+    private final long memoryBudget;
+    private final LinkedHashMap<Integer, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+    private long tileLoads;
+    private long tileEvictions;
+
+    private TiledGraph(FileChannel channel, EdgeReader edgeReader, RequirementReader requirementReader,
+                       int vertexCount, int edgeCount, Requirement[] requirements, int[] tileRegionIds,
+                       long[] tileOffsets, int[] tileLengths, int[] tileEdgeCounts,
+                       long memoryBudget) {
+        this.channel = channel;
+        this.edgeReader = edgeReader;
+        this.requirementReader = requirementReader;
+        this.vertexCount = vertexCount;
+        this.edgeCount = edgeCount;
+        this.requirements = requirements;
+        this.tileRegionIds = tileRegionIds;
+        this.tileOffsets = tileOffsets;
+        this.tileLengths = tileLengths;
+        this.tileEdgeCounts = tileEdgeCounts;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public static void writeToFile(Graph graph, File file) throws IOException {
+        SortedMap<Integer, IntList> regionVertices = new TreeMap<>();
+        for (Vertex vertex : graph.getVertices()) {
+            regionVertices.computeIfAbsent(HierarchicalGraph.getRegionId(vertex), k -> new IntList()).add(vertex.hashCode());
+        }
+
+        //Distinct requirement trees, compared by their serialized form
+        Map<Requirement, Integer> requirementIds = new IdentityHashMap<>();
+        Map<ByteBuffer, Integer> serializedIds = new HashMap<>();
+        ByteArrayOutputStream requirementBytes = new ByteArrayOutputStream();
+        int totalEdgeCount = 0;
+        for (Vertex vertex : graph.getVertices()) {
+            Collection<Edge> edges = graph.getEdges(vertex);
+            if (edges == null) {
+                continue;
+            }
+            for (Edge edge : edges) {
+                totalEdgeCount++;
+                Requirement requirement = edge.getRequirement();
+                if (requirement != null && edge.getType() == BasicEdge.TYPE && !requirementIds.containsKey(requirement)) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    requirement.writeToDataStream(new DataOutputStream(bytes));
+                    Integer id = serializedIds.get(ByteBuffer.wrap(bytes.toByteArray()));
+                    if (id == null) {
+                        id = serializedIds.size();
+                        serializedIds.put(ByteBuffer.wrap(bytes.toByteArray()), id);
+                        bytes.writeTo(requirementBytes);
+                    }
+                    requirementIds.put(requirement, id);
+                }
+            }
+        }
+
+        int tileCount = regionVertices.size();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.getVertexCount());
+            out.writeInt(totalEdgeCount);
+            out.writeInt(serializedIds.size());
+            out.writeInt(tileCount);
+            out.write(requirementBytes.toByteArray());
+            long indexOffset = out.getFilePointer();
+            out.seek(indexOffset + (long) tileCount * INDEX_ENTRY_SIZE);
+
+            ByteArrayOutputStream index = new ByteArrayOutputStream(tileCount * INDEX_ENTRY_SIZE);
+            DataOutputStream indexOut = new DataOutputStream(index);
+            for (Map.Entry<Integer, IntList> entry : regionVertices.entrySet()) {
+                int[] vertices = entry.getValue().toArray();
+                Arrays.sort(vertices);
+                ByteArrayOutputStream tile = new ByteArrayOutputStream();
+                int tileEdgeCount = writeTile(graph, vertices, requirementIds, new DataOutputStream(tile));
+                indexOut.writeInt(entry.getKey());
+                indexOut.writeLong(out.getFilePointer());
+                indexOut.writeInt(tile.size());
+                indexOut.writeInt(tileEdgeCount);
+                out.write(tile.toByteArray());
+            }
+            out.seek(indexOffset);
+            out.write(index.toByteArray());
+        }
+    }
+
+    private static int writeTile(Graph graph, int[] vertices, Map<Requirement, Integer> requirementIds,
+                                 DataOutputStream dos) throws IOException {
+        VarInts.writeUnsigned(dos, vertices.length);
+        int previous = 0;
+        for (int vertex : vertices) {
+            VarInts.writeUnsigned(dos, vertex - previous);
+            previous = vertex;
+        }
+        int tileEdgeCount = 0;
+        for (int vertex : vertices) {
+            Vertex origin = new Vertex(vertex);
+            Collection<Edge> edges = graph.getEdges(origin);
+            if (edges == null) {
+                VarInts.writeUnsigned(dos, 0);
+                continue;
+            }
+            VarInts.writeUnsigned(dos, edges.size());
+            tileEdgeCount += edges.size();
+            for (Edge edge : edges) {
+                if (edge.getType() == BasicEdge.TYPE && edge.getOrigin().equals(origin)) {
+                    Vertex destination = edge.getDestination();
+                    VarInts.writeUnsigned(dos, COMPACT_EDGE);
+                    VarInts.writeSigned(dos, destination.getX() - origin.getX());
+                    VarInts.writeSigned(dos, destination.getY() - origin.getY());
+                    VarInts.writeSigned(dos, destination.getZ() - origin.getZ());
+                    dos.writeFloat(edge.getCost());
+                    VarInts.writeUnsigned(dos, edge.getRequirement() == null ? 0 : requirementIds.get(edge.getRequirement()) + 1);
+                } else {
+                    VarInts.writeUnsigned(dos, RECORD_EDGE);
+                    edge.writeToDataStream(dos);
+                }
+            }
+        }
+        return tileEdgeCount;
+    }
+
+    /**
+     * Opens a tiled graph, reading only its header, requirement table and tile index.
+     * @param memoryBudget the estimated heap, in bytes, that resident tiles may use before the coldest are evicted
+     */
+    public static TiledGraph readFromFile(File file, EdgeReader edgeReader, RequirementReader requirementReader,
+                                          long memoryBudget) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (dis.readInt() != MAGIC) {
+                    throw new IllegalStateException(file + " is not a tiled graph");
+                }
+                int version = dis.readInt();
+                if (version != VERSION) {
+                    throw new IllegalStateException("Version mismatch: File=" + version + ", TiledGraph=" + VERSION);
+                }
+                int vertexCount = dis.readInt();
+                int edgeCount = dis.readInt();
+                Requirement[] requirements = new Requirement[dis.readInt()];
+                int tileCount = dis.readInt();
+                for (int i = 0; i < requirements.length; i++) {
+                    requirements[i] = requirementReader.readRequirement(dis);
+                }
+                int[] tileRegionIds = new int[tileCount];
+                long[] tileOffsets = new long[tileCount];
+                int[] tileLengths = new int[tileCount];
+                int[] tileEdgeCounts = new int[tileCount];
+                for (int i = 0; i < tileCount; i++) {
+                    tileRegionIds[i] = dis.readInt();
+                    tileOffsets[i] = dis.readLong();
+                    tileLengths[i] = dis.readInt();
+                    tileEdgeCounts[i] = dis.readInt();
+                }
+                TiledGraph graph = new TiledGraph(channel, edgeReader, requirementReader, vertexCount, edgeCount,
+                        requirements, tileRegionIds, tileOffsets, tileLengths, tileEdgeCounts, memoryBudget);
+                log.debug("Opened {} with a budget of {} bytes", graph, memoryBudget);
+                return graph;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Tile getTile(int tileIndex) {
+        int regionId = tileRegionIds[tileIndex];
+        synchronized (tiles) {
+            Tile tile = tiles.get(regionId);
+            if (tile != null) {
+                return tile;
+            }
+        }
+        //Decoded outside the lock, a tile raced by two threads is decoded twice and the first one kept
+        Tile loaded = loadTile(tileIndex);
+        synchronized (tiles) {
+            Tile tile = tiles.get(regionId);
+            if (tile != null) {
+                return tile;
+            }
+            tiles.put(regionId, loaded);
+            tileLoads++;
+            residentBytes += loaded.getEstimatedBytes();
+            Iterator<Tile> iterator = tiles.values().iterator();
+            while (residentBytes > memoryBudget && tiles.size() > 1) {
+                Tile evicted = iterator.next();
+                iterator.remove();
+                residentBytes -= evicted.getEstimatedBytes();
+                tileEvictions++;
+            }
+            return loaded;
+        }
+    }
+
+    private Tile loadTile(int tileIndex) {
+        ByteBuffer buffer = ByteBuffer.allocate(tileLengths[tileIndex]);
+        try {
+            long position = tileOffsets[tileIndex];
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new EOFException("Tile " + tileRegionIds[tileIndex] + " is truncated");
+                }
+            }
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+            int tileVertexCount = VarInts.readUnsigned(dis);
+            int[] vertexIds = new int[tileVertexCount];
+            Vertex[] vertices = new Vertex[tileVertexCount];
+            int vertexId = 0;
+            for (int i = 0; i < tileVertexCount; i++) {
+                vertexId += VarInts.readUnsigned(dis);
+                vertexIds[i] = vertexId;
+                vertices[i] = new Vertex(vertexId);
+            }
+            int[] edgeOffsets = new int[tileVertexCount + 1];
+            Edge[] edges = new Edge[tileEdgeCounts[tileIndex]];
+            int edge = 0;
+            for (int i = 0; i < tileVertexCount; i++) {
+                Vertex origin = vertices[i];
+                int count = VarInts.readUnsigned(dis);
+                for (int j = 0; j < count; j++) {
+                    int layout = VarInts.readUnsigned(dis);
+                    if (layout == COMPACT_EDGE) {
+                        Vertex destination = new Vertex(origin.getX() + VarInts.readSigned(dis),
+                                origin.getY() + VarInts.readSigned(dis), origin.getZ() + VarInts.readSigned(dis));
+                        float cost = dis.readFloat();
+                        int requirement = VarInts.readUnsigned(dis);
+                        edges[edge++] = new BasicEdge(origin, destination, cost, requirement == 0 ? null : requirements[requirement - 1]);
+                    } else if (layout == RECORD_EDGE) {
+                        edges[edge++] = edgeReader.readEdge(dis, requirementReader);
+                    } else {
+                        throw new IllegalStateException("Unsupported edge layout: " + layout);
+                    }
+                }
+                edgeOffsets[i + 1] = edge;
+            }
+            return new Tile(vertexIds, vertices, edgeOffsets, edges);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to load tile " + tileRegionIds[tileIndex], e);
+        }
+    }
+
+    private int getTileIndex(int x, int y) {
+        return Arrays.binarySearch(tileRegionIds, HierarchicalGraph.getRegionId(x, y));
+    }
+
+    @Override
+    public Collection<Vertex> getVertices() {
+        return new AbstractCollection<Vertex>() {
+            @Override
+            public Iterator<Vertex> iterator() {
+                return new TileIterator<Vertex>() {
+                    @Override
+                    Vertex[] getElements(Tile tile) {
+                        return tile.vertices;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return vertexCount;
+            }
+        };
+    }
+
+    @Override
+    public Vertex getVertex(int x, int y, int z) {
+        int tileIndex = getTileIndex(x, y);
+        if (tileIndex < 0) {
+            return null;
+        }
+        Tile tile = getTile(tileIndex);
+        int index = Arrays.binarySearch(tile.vertexIds, Vertex.hashCode(x, y, z));
+        return index < 0 ? null : tile.vertices[index];
+    }
+
+    @Override
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    @Override
+    public Collection<Edge> getEdges() {
+        return new AbstractCollection<Edge>() {
+            @Override
+            public Iterator<Edge> iterator() {
+                return new TileIterator<Edge>() {
+                    @Override
+                    Edge[] getElements(Tile tile) {
+                        return tile.edges;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return edgeCount;
+            }
+        };
+    }
+
+    @Override
+    public Collection<Edge> getEdges(Vertex vertex) {
+        int tileIndex = getTileIndex(vertex.getX(), vertex.getY());
+        if (tileIndex < 0) {
+            return null;
+        }
+        Tile tile = getTile(tileIndex);
+        int index = Arrays.binarySearch(tile.vertexIds, vertex.hashCode());
+        if (index < 0 || tile.edgeOffsets[index] == tile.edgeOffsets[index + 1]) {
+            return null;
+        }
+        return Collections.unmodifiableList(Arrays.asList(tile.edges).subList(tile.edgeOffsets[index], tile.edgeOffsets[index + 1]));
+    }
+
+    @Override
+    public void addVertex(Vertex vertex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void addVertices(Collection<Vertex> vertices) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void addEdge(Edge edge) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void addEdges(Collection<Edge> edges) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public void removeEdge(Edge edge) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public Collection<Edge> removeVertex(Vertex vertex) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is immutable");
+    }
+
+    @Override
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public int getTileCount() {
+        return tileRegionIds.length;
+    }
+
+    public int getResidentTileCount() {
+        synchronized (tiles) {
+            return tiles.size();
+        }
+    }
+
+    /**
+     * @return the estimated heap use of the resident tiles, in bytes
+     */
+    public long getResidentBytes() {
+        synchronized (tiles) {
+            return residentBytes;
+        }
+    }
+
+    public long getTileLoads() {
+        synchronized (tiles) {
+            return tileLoads;
+        }
+    }
+
+    public long getTileEvictions() {
+        synchronized (tiles) {
+            return tileEvictions;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "TiledGraph{" +
+                "vertices=" + vertexCount +
+                ", edges=" + edgeCount +
+                ", tiles=" + tileRegionIds.length +
+                ", resident=" + getResidentTileCount() +
+                '}';
+    }
+
+    /**
+     * Walks the elements of every tile in region order, loading tiles as it reaches them.
+     */
+    private abstract class TileIterator<T> implements Iterator<T> {
+        private int tileIndex = -1;
+        private T[] elements;
+        private int index;
+
+        abstract T[] getElements(Tile tile);
+
+        @Override
+        public boolean hasNext() {
+            while (elements == null || index == elements.length) {
+                if (tileIndex + 1 >= tileRegionIds.length) {
+                    return false;
+                }
+                tileIndex++;
+                elements = getElements(getTile(tileIndex));
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return elements[index++];
+        }
+    }
+
+    /**
+     * Decoded vertices and edges of one region, with the edges of vertex {@code i} in
+     * {@code [edgeOffsets[i], edgeOffsets[i + 1])}.
+     */
+    private static class Tile {
+        private final int[] vertexIds;
+        private final Vertex[] vertices;
+        private final int[] edgeOffsets;
+        private final Edge[] edges;
+
+        Tile(int[] vertexIds, Vertex[] vertices, int[] edgeOffsets, Edge[] edges) {
+            this.vertexIds = vertexIds;
+            this.vertices = vertices;
+            this.edgeOffsets = edgeOffsets;
+            this.edges = edges;
+        }
+
+        long getEstimatedBytes() {
+            return (long) vertices.length * VERTEX_BYTES + (long) edges.length * EDGE_BYTES;
+        }
+    }
+}
@@ -34,6 +34,10 @@ public class EdgeReader {
         return edgeParserMap.get(type);
     }
 
+    /**
+     * Requirements are read through the requirement reader, so edges with identical requirements share its
+     * interned instances.
+     */
     public Edge readEdge(DataInputStream in, RequirementReader requirementReader) throws IOException {
         int type = in.readInt();
         EdgeParser reader = getParser(type);
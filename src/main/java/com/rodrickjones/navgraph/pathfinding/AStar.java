@@ -4,50 +4,90 @@ import com.rodrickjones.navgraph.Graph;
 import com.rodrickjones.navgraph.edges.Edge;
 import com.rodrickjones.navgraph.requirements.Requirement;
 import com.rodrickjones.navgraph.requirements.RequirementContext;
-import com.rodrickjones.navgraph.util.Frontier;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
 import com.rodrickjones.navgraph.vertices.Vertex;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 @Slf4j
 public class AStar extends PathfindingAlgorithm<Graph> {
+    private final Heuristic heuristic;
+
     public AStar(Graph graph) {
+        this(graph, Heuristic.EUCLIDEAN);
+    }
+
+    public AStar(Graph graph, Heuristic heuristic) {
         super(graph);
+        this.heuristic = heuristic;
     }
 
     @Override
     public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context) {
+        return findPath(origin, destinations, context, null);
+    }
+
+    @Override
+    protected Path findPath(PathQuery query, RequirementMemo requirements) {
+        return findPath(query.getOrigin(), query.getDestinations(), requirements, null);
+    }
+
+    /**
+     * @param filter if not null, restricts the search to the vertices it accepts
+     */
+    public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context, Predicate<Vertex> filter) {
+        return findPath(origin, destinations, new RequirementMemo(context), filter);
+    }
+
+    /**
+     * @param requirements the answers of the query this search is part of, shared with its other searches
+     */
+    public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementMemo requirements, Predicate<Vertex> filter) {
         long start = System.currentTimeMillis();
-        Queue<Node> frontier = new Frontier<>(Comparator.comparingDouble(n -> n.getCost() + n.getHeuristic()));
-        frontier.offer(new Node(origin, null, null, 0, 0));
-        Map<Vertex, Node> explored = new HashMap<>();
+        Queue<FrontierEntry> frontier = new PriorityQueue<>();
+        Node originNode = new Node(origin, null, null, 0, 0);
+        Map<Vertex, Node> nodes = new HashMap<>();
+        nodes.put(origin, originNode);
+        frontier.offer(new FrontierEntry(originNode));
+        int expanded = 0;
         while (!frontier.isEmpty()) {
-            Node current = frontier.poll();
+            FrontierEntry entry = frontier.poll();
+            Node current = entry.node;
+            if (entry.cost != current.getCost()) {
+                //Superseded by a cheaper route to the same vertex
+                continue;
+            }
             if (destinations.contains(current.getVertex())) {
                 Path res = backtrackAndBuildPath(current);
                 log.debug("Path built in {}ms: {}", System.currentTimeMillis() - start, res);
-                log.trace("Explored + frontier: {}", explored.size() + frontier.size());
+                log.trace("Expanded + frontier: {}, {}", expanded + frontier.size(), requirements);
                 return res;
             }
-            explored.put(current.getVertex(), current);
+            expanded++;
             Iterable<Edge> edges = graph.getEdges(current.getVertex());
             if (edges != null) {
                 for (Edge edge : edges) {
                     Requirement requirement = edge.getRequirement();
-                    if (requirement != null && !requirement.isMet(context)) {
+                    if (requirement != null && !requirements.isMet(requirement)) {
+                        continue;
+                    }
+                    if (filter != null && !filter.test(edge.getDestination())) {
                         continue;
                     }
-                    Node node = explored.get(edge.getDestination());
+                    Node node = nodes.get(edge.getDestination());
                     double cost = current.getCost() + edge.getCost();
                     if (node == null) {
                         node = new Node(edge.getDestination(), current, edge, cost, heuristic(destinations, edge.getDestination()));
-                        if (!frontier.contains(node)) {
-                            frontier.offer(node);
-                        }
+                        nodes.put(edge.getDestination(), node);
                     } else if (cost < node.getCost()) {
+                        //Reopens expanded vertices too, as a custom heuristic is not guaranteed to be consistent
                         node.setParent(current, edge);
+                    } else {
+                        continue;
                     }
+                    frontier.offer(new FrontierEntry(node));
                 }
             }
         }
@@ -56,13 +96,23 @@ public class AStar extends PathfindingAlgorithm<Graph> {
     }
 
     public double heuristic(Collection<Vertex> destinations, Vertex currentVertex) {
-        double min =  Double.MAX_VALUE;
-        for (Vertex destination : destinations) {
-            double h = Math.sqrt(Math.pow(destination.getX() - currentVertex.getX(), 2) + Math.pow(destination.getY() - currentVertex.getY(), 2));
-            if (h < min) {
-                min = h;
-            }
+        return heuristic.estimate(destinations, currentVertex);
+    }
+
+    private static class FrontierEntry implements Comparable<FrontierEntry> {
+        final Node node;
+        final double cost;
+        final double priority;
+
+        FrontierEntry(Node node) {
+            this.node = node;
+            this.cost = node.getCost();
+            this.priority = cost + node.getHeuristic();
+        }
+
+        @Override
+        public int compareTo(FrontierEntry o) {
+            return Double.compare(priority, o.priority);
         }
-        return min;
     }
 }
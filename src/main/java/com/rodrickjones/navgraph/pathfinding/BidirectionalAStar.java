@@ -0,0 +1,167 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.Graph;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * A* searching forward from the origin and backward from every destination at the same time.
+ * The backward search walks {@link Graph#getIncomingEdges(Vertex)}, so the graph needs a reverse edge index.
+ * The search stops once neither frontier can improve on the best meeting point found so far.
+ */
+@Slf4j
+public class BidirectionalAStar extends PathfindingAlgorithm<Graph> {
+    public BidirectionalAStar(Graph graph) {
+        super(graph);
+    }
+
+    @Override
+    public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context) {
+        return findPath(origin, destinations, new RequirementMemo(context));
+    }
+
+    @Override
+    protected Path findPath(PathQuery query, RequirementMemo requirements) {
+        return findPath(query.getOrigin(), query.getDestinations(), requirements);
+    }
+
+    private Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementMemo requirements) {
+        long start = System.currentTimeMillis();
+        Map<Vertex, Node> forward = new HashMap<>();
+        Map<Vertex, Node> backward = new HashMap<>();
+        Queue<FrontierEntry> forwardFrontier = new PriorityQueue<>();
+        Queue<FrontierEntry> backwardFrontier = new PriorityQueue<>();
+
+        Node originNode = new Node(origin, null, null, 0, heuristic(destinations, origin));
+        forward.put(origin, originNode);
+        forwardFrontier.offer(new FrontierEntry(originNode, originNode.getHeuristic()));
+        for (Vertex destination : destinations) {
+            Node destinationNode = new Node(destination, null, null, 0, reverseHeuristic(origin, destination));
+            backward.put(destination, destinationNode);
+            backwardFrontier.offer(new FrontierEntry(destinationNode, destinationNode.getHeuristic()));
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        Vertex meeting = null;
+        if (backward.containsKey(origin)) {
+            best = 0;
+            meeting = origin;
+        }
+        int expanded = 0;
+        while (!forwardFrontier.isEmpty() && !backwardFrontier.isEmpty()) {
+            FrontierEntry forwardTop = peekCurrent(forwardFrontier);
+            FrontierEntry backwardTop = peekCurrent(backwardFrontier);
+            if (forwardTop == null || backwardTop == null
+                    || isSearchComplete(forwardTop.priority, backwardTop.priority, best)) {
+                break;
+            }
+            boolean expandForward = forwardFrontier.size() <= backwardFrontier.size();
+            Map<Vertex, Node> nodes = expandForward ? forward : backward;
+            Map<Vertex, Node> opposite = expandForward ? backward : forward;
+            Queue<FrontierEntry> frontier = expandForward ? forwardFrontier : backwardFrontier;
+            Node current = frontier.poll().node;
+            expanded++;
+            Collection<Edge> edges = expandForward ? graph.getEdges(current.getVertex()) : graph.getIncomingEdges(current.getVertex());
+            if (edges == null) {
+                continue;
+            }
+            for (Edge edge : edges) {
+                Requirement requirement = edge.getRequirement();
+                if (requirement != null && !requirements.isMet(requirement)) {
+                    continue;
+                }
+                Vertex neighbour = expandForward ? edge.getDestination() : edge.getOrigin();
+                double cost = current.getCost() + edge.getCost();
+                Node node = nodes.get(neighbour);
+                if (node == null) {
+                    node = new Node(neighbour, current, edge, cost,
+                            expandForward ? heuristic(destinations, neighbour) : reverseHeuristic(origin, neighbour));
+                    nodes.put(neighbour, node);
+                } else if (cost < node.getCost()) {
+                    node.setParent(current, edge);
+                } else {
+                    continue;
+                }
+                frontier.offer(new FrontierEntry(node, cost + node.getHeuristic()));
+                Node other = opposite.get(neighbour);
+                if (other != null && cost + other.getCost() < best) {
+                    best = cost + other.getCost();
+                    meeting = neighbour;
+                }
+            }
+        }
+        log.trace("Expanded: {}, {}", expanded, requirements);
+        if (meeting == null) {
+            log.debug("Unable to build path, {}ms: {} -> {}", System.currentTimeMillis() - start, origin, destinations);
+            return null;
+        }
+        Path res = joinPath(forward.get(meeting), backward.get(meeting));
+        log.debug("Path built in {}ms: {}", System.currentTimeMillis() - start, res);
+        return res;
+    }
+
+    /**
+     * Drops entries superseded by a cheaper route to the same node.
+     */
+    private static FrontierEntry peekCurrent(Queue<FrontierEntry> frontier) {
+        FrontierEntry entry;
+        while ((entry = frontier.peek()) != null && entry.cost != entry.node.getCost()) {
+            frontier.poll();
+        }
+        return entry;
+    }
+
+    protected boolean isSearchComplete(double forwardMin, double backwardMin, double best) {
+        return forwardMin >= best || backwardMin >= best;
+    }
+
+    private Path joinPath(Node forwardNode, Node backwardNode) {
+        Path head = backtrackAndBuildPath(forwardNode);
+        List<Vertex> vertices = new ArrayList<>(head.getVertices());
+        List<Edge> edges = new ArrayList<>(head.getEdges());
+        while (backwardNode.getParent() != null) {
+            edges.add(backwardNode.getEdge());
+            backwardNode = backwardNode.getParent();
+            vertices.add(backwardNode.getVertex());
+        }
+        return new Path(vertices, edges);
+    }
+
+    public double heuristic(Collection<Vertex> destinations, Vertex currentVertex) {
+        double min = Double.MAX_VALUE;
+        for (Vertex destination : destinations) {
+            double h = reverseHeuristic(destination, currentVertex);
+            if (h < min) {
+                min = h;
+            }
+        }
+        return min;
+    }
+
+    public double reverseHeuristic(Vertex origin, Vertex currentVertex) {
+        return Math.sqrt(Math.pow(origin.getX() - currentVertex.getX(), 2) + Math.pow(origin.getY() - currentVertex.getY(), 2));
+    }
+
+    private static class FrontierEntry implements Comparable<FrontierEntry> {
+        final Node node;
+        final double cost;
+        final double priority;
+
+        FrontierEntry(Node node, double priority) {
+            this.node = node;
+            this.cost = node.getCost();
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(FrontierEntry o) {
+            return Double.compare(priority, o.priority);
+        }
+    }
+}
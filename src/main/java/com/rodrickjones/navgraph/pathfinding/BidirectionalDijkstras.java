@@ -0,0 +1,27 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.Graph;
+import com.rodrickjones.navgraph.vertices.Vertex;
+
+import java.util.Collection;
+
+public class BidirectionalDijkstras extends BidirectionalAStar {
+    public BidirectionalDijkstras(Graph graph) {
+        super(graph);
+    }
+
+    @Override
+    protected boolean isSearchComplete(double forwardMin, double backwardMin, double best) {
+        return forwardMin + backwardMin >= best;
+    }
+
+    @Override
+    public double heuristic(Collection<Vertex> destinations, Vertex currentVertex) {
+        return 0;
+    }
+
+    @Override
+    public double reverseHeuristic(Vertex origin, Vertex currentVertex) {
+        return 0;
+    }
+}
@@ -0,0 +1,159 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.IndexedGraph;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.util.IndexedMinHeap;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * A* over the dense vertex indices of an {@link IndexedGraph}.
+ * Costs, parents and the frontier live in a reusable {@link SearchWorkspace}, so a search allocates nothing
+ * beyond the {@link Path} it returns.
+ */
+@Slf4j
+public class CompactAStar extends PathfindingAlgorithm<IndexedGraph> {
+    private final ThreadLocal<SearchWorkspace> workspaces;
+    private final LandmarkHeuristic landmarks;
+
+    public CompactAStar(IndexedGraph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * @param landmarks lower bounds to guide the search with instead of the straight line distance, built from a graph
+     *                  with the same vertex indices, or null
+     */
+    public CompactAStar(IndexedGraph graph, LandmarkHeuristic landmarks) {
+        super(graph);
+        if (landmarks != null && !landmarks.isBuiltFor(graph)) {
+            throw new IllegalArgumentException(landmarks + " was built for a graph with different vertex indices");
+        }
+        this.landmarks = landmarks;
+        workspaces = ThreadLocal.withInitial(this::createWorkspace);
+    }
+
+    public SearchWorkspace createWorkspace() {
+        return new SearchWorkspace(graph.getVertexCount());
+    }
+
+    @Override
+    public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context) {
+        SearchWorkspace workspace = workspaces.get();
+        int originIndex = graph.indexOf(origin);
+        int[] destinationIndices = workspace.indicesOf(graph, destinations);
+        if (originIndex < 0 || destinationIndices.length == 0) {
+            log.debug("Unable to build path, unknown vertices: {} -> {}", origin, destinations);
+            return null;
+        }
+        return findPath(originIndex, destinationIndices, context, workspace);
+    }
+
+    public Path findPath(int originIndex, int[] destinationIndices, RequirementContext context, SearchWorkspace workspace) {
+        long start = System.currentTimeMillis();
+        int destination = search(originIndex, destinationIndices, context, workspace);
+        if (destination < 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to build path, {}ms: {} -> {}", System.currentTimeMillis() - start, originIndex, Arrays.toString(destinationIndices));
+            }
+            return null;
+        }
+        Path res = backtrackAndBuildPath(workspace, destination);
+        if (log.isDebugEnabled()) {
+            log.debug("Path built in {}ms: {}", System.currentTimeMillis() - start, res);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Expanded: {}, {}", workspace.getExpanded(), workspace.getRequirementMemo());
+        }
+        return res;
+    }
+
+    /**
+     * Runs the search without building a {@link Path}, leaving costs and parents in the workspace.
+     * @return the index of the destination reached, or -1 if none are reachable
+     */
+    public int search(int originIndex, int[] destinationIndices, RequirementContext context, SearchWorkspace workspace) {
+        workspace.reset();
+        workspace.requirements.reset(context);
+        for (int destination : destinationIndices) {
+            workspace.setTarget(destination);
+        }
+        IndexedMinHeap frontier = workspace.frontier;
+        workspace.setSeen(originIndex, 0, -1);
+        frontier.offer(originIndex, heuristic(originIndex, destinationIndices));
+        while (!frontier.isEmpty()) {
+            int current = frontier.poll();
+            if (workspace.isTarget(current)) {
+                return current;
+            }
+            workspace.setClosed(current, true);
+            workspace.expanded++;
+            double currentCost = workspace.costs[current];
+            int end = graph.getEdgeEnd(current);
+            for (int edge = graph.getEdgeStart(current); edge < end; edge++) {
+                int requirementId = graph.getEdgeRequirementId(edge);
+                if (requirementId != IndexedGraph.NO_REQUIREMENT && !isMet(requirementId, workspace)) {
+                    continue;
+                }
+                int destination = graph.getEdgeDestination(edge);
+                double cost = currentCost + graph.getEdgeCost(edge);
+                if (workspace.isSeen(destination) && cost >= workspace.costs[destination]) {
+                    continue;
+                }
+                workspace.setSeen(destination, cost, edge);
+                //Reopen closed vertices, the heuristic is not guaranteed to be consistent across non-basic edges
+                workspace.setClosed(destination, false);
+                frontier.offer(destination, cost + heuristic(destination, destinationIndices));
+            }
+        }
+        return -1;
+    }
+
+    protected boolean isMet(int requirementId, SearchWorkspace workspace) {
+        return workspace.requirements.isMet(graph.getRequirement(requirementId));
+    }
+
+    public double heuristic(int vertexIndex, int[] destinationIndices) {
+        if (landmarks != null) {
+            return landmarks.estimate(vertexIndex, destinationIndices);
+        }
+        int vertexId = graph.getVertexId(vertexIndex);
+        int x = Vertex.getX(vertexId);
+        int y = Vertex.getY(vertexId);
+        double min = Double.MAX_VALUE;
+        for (int destination : destinationIndices) {
+            int destinationId = graph.getVertexId(destination);
+            int dx = Vertex.getX(destinationId) - x;
+            int dy = Vertex.getY(destinationId) - y;
+            double h = Math.sqrt(dx * dx + dy * dy);
+            if (h < min) {
+                min = h;
+            }
+        }
+        return min;
+    }
+
+    protected Path backtrackAndBuildPath(SearchWorkspace workspace, int destination) {
+        ArrayList<Vertex> vertices = new ArrayList<>();
+        ArrayList<Edge> edges = new ArrayList<>();
+        int current = destination;
+        int edge;
+        while ((edge = workspace.parentEdges[current]) >= 0) {
+            vertices.add(graph.getVertexAt(current));
+            int parent = graph.getEdgeOrigin(edge);
+            edges.add(graph.getEdge(parent, edge));
+            current = parent;
+        }
+        vertices.add(graph.getVertexAt(current));
+
+        vertices.trimToSize();
+        edges.trimToSize();
+
+        Collections.reverse(vertices);
+        Collections.reverse(edges);
+        return new Path(vertices, edges);
+    }
+}
@@ -0,0 +1,14 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.IndexedGraph;
+
+public class CompactDijkstras extends CompactAStar {
+    public CompactDijkstras(IndexedGraph graph) {
+        super(graph);
+    }
+
+    @Override
+    public double heuristic(int vertexIndex, int[] destinationIndices) {
+        return 0;
+    }
+}
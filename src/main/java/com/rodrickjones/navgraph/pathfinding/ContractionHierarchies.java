@@ -0,0 +1,149 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.CompactGraph;
+import com.rodrickjones.navgraph.ContractionHierarchy;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
+import com.rodrickjones.navgraph.util.IntList;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Queries a {@link ContractionHierarchy} with a bidirectional Dijkstra that only climbs the hierarchy,
+ * then unpacks the shortcuts on the best route back into the graph's edges.
+ */
+@Slf4j
+public class ContractionHierarchies extends PathfindingAlgorithm<CompactGraph> {
+    private final ContractionHierarchy hierarchy;
+    private final ThreadLocal<SearchWorkspace[]> workspaces;
+
+    public ContractionHierarchies(CompactGraph graph, ContractionHierarchy hierarchy) {
+        super(graph);
+        if (hierarchy.getVertexCount() != graph.getVertexCount()) {
+            throw new IllegalArgumentException(hierarchy + " was not built for " + graph);
+        }
+        this.hierarchy = hierarchy;
+        workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace[]{
+                new SearchWorkspace(graph.getVertexCount()), new SearchWorkspace(graph.getVertexCount())});
+    }
+
+    @Override
+    public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context) {
+        long start = System.currentTimeMillis();
+        int originIndex = graph.indexOf(origin);
+        int[] destinationIndices = destinations.stream().mapToInt(graph::indexOf).filter(i -> i >= 0).toArray();
+        if (originIndex < 0 || destinationIndices.length == 0) {
+            log.debug("Unable to build path, unknown vertices: {} -> {}", origin, destinations);
+            return null;
+        }
+        SearchWorkspace[] workspace = workspaces.get();
+        int meeting = search(originIndex, destinationIndices, context, workspace[0], workspace[1]);
+        if (meeting < 0) {
+            log.debug("Unable to build path, {}ms: {} -> {}", System.currentTimeMillis() - start, origin, destinations);
+            return null;
+        }
+        Path res = unpackPath(meeting, workspace[0], workspace[1]);
+        log.debug("Path built in {}ms: {}", System.currentTimeMillis() - start, res);
+        log.trace("Expanded: {}, {}", workspace[0].getExpanded() + workspace[1].getExpanded(), workspace[0].getRequirementMemo());
+        return res;
+    }
+
+    /**
+     * @return the vertex where the upward searches meet on the cheapest route, or -1 if there is none
+     */
+    public int search(int originIndex, int[] destinationIndices, RequirementContext context,
+                      SearchWorkspace forward, SearchWorkspace backward) {
+        forward.reset();
+        backward.reset();
+        //Both directions check the same requirements, so they share the forward memo
+        RequirementMemo requirements = forward.requirements;
+        requirements.reset(context);
+        forward.setSeen(originIndex, 0, -1);
+        forward.frontier.offer(originIndex, 0);
+        for (int destination : destinationIndices) {
+            backward.setSeen(destination, 0, -1);
+            backward.frontier.offer(destination, 0);
+        }
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        while (true) {
+            boolean forwardDone = forward.frontier.isEmpty() || forward.frontier.peekKey() >= best;
+            boolean backwardDone = backward.frontier.isEmpty() || backward.frontier.peekKey() >= best;
+            if (forwardDone && backwardDone) {
+                break;
+            }
+            boolean expandForward = !forwardDone && (backwardDone || forward.frontier.peekKey() <= backward.frontier.peekKey());
+            SearchWorkspace workspace = expandForward ? forward : backward;
+            SearchWorkspace opposite = expandForward ? backward : forward;
+            int current = workspace.frontier.poll();
+            workspace.expanded++;
+            double currentCost = workspace.costs[current];
+            if (opposite.isSeen(current) && currentCost + opposite.costs[current] < best) {
+                best = currentCost + opposite.costs[current];
+                meeting = current;
+            }
+            int end = expandForward ? hierarchy.getUpEnd(current) : hierarchy.getDownEnd(current);
+            for (int slot = expandForward ? hierarchy.getUpStart(current) : hierarchy.getDownStart(current); slot < end; slot++) {
+                int edge = expandForward ? hierarchy.getUpEdge(slot) : hierarchy.getDownEdge(slot);
+                if (!canTraverse(edge, requirements)) {
+                    continue;
+                }
+                int neighbour = expandForward ? hierarchy.getEdgeTo(edge) : hierarchy.getEdgeFrom(edge);
+                double cost = currentCost + hierarchy.getEdgeCost(edge);
+                if (!workspace.isSeen(neighbour) || cost < workspace.costs[neighbour]) {
+                    workspace.setSeen(neighbour, cost, edge);
+                    workspace.frontier.offer(neighbour, cost);
+                }
+            }
+        }
+        return meeting;
+    }
+
+    private boolean canTraverse(int edge, RequirementMemo requirements) {
+        int original = hierarchy.getOriginalEdge(edge);
+        if (original < 0) {
+            return true;
+        }
+        int requirement = graph.getEdgeRequirementId(original);
+        return requirement == CompactGraph.NO_REQUIREMENT || requirements.isMet(graph.getRequirement(requirement));
+    }
+
+    private Path unpackPath(int meeting, SearchWorkspace forward, SearchWorkspace backward) {
+        IntList route = new IntList();
+        int current = meeting;
+        int edge;
+        while ((edge = forward.parentEdges[current]) >= 0) {
+            route.add(edge);
+            current = hierarchy.getEdgeFrom(edge);
+        }
+        int originIndex = current;
+        //Forward half was collected from the meeting point back to the origin
+        for (int i = 0, j = route.size() - 1; i < j; i++, j--) {
+            int swap = route.get(i);
+            route.set(i, route.get(j));
+            route.set(j, swap);
+        }
+        current = meeting;
+        while ((edge = backward.parentEdges[current]) >= 0) {
+            route.add(edge);
+            current = hierarchy.getEdgeTo(edge);
+        }
+
+        IntList originals = new IntList(route.size() * 2);
+        for (int i = 0; i < route.size(); i++) {
+            hierarchy.unpack(route.get(i), originals);
+        }
+        List<Vertex> vertices = new ArrayList<>(originals.size() + 1);
+        List<Edge> edges = new ArrayList<>(originals.size());
+        vertices.add(graph.getVertexAt(originIndex));
+        for (int i = 0; i < originals.size(); i++) {
+            int original = originals.get(i);
+            edges.add(graph.getEdge(hierarchy.getEdgeFrom(original), hierarchy.getOriginalEdge(original)));
+            vertices.add(graph.getVertexAt(hierarchy.getEdgeTo(original)));
+        }
+        return new Path(vertices, edges);
+    }
+}
@@ -0,0 +1,119 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.IndexedGraph;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.util.IndexedMinHeap;
+import com.rodrickjones.navgraph.util.RangeTask;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Costs from origins to many targets over an {@link IndexedGraph}, without building paths.
+ * Each origin runs a single Dijkstra that stops once every target is settled, instead of one search per pair.
+ */
+@Slf4j
+public class DistanceMatrix {
+    private final IndexedGraph graph;
+    private final ThreadLocal<SearchWorkspace> workspaces;
+
+    public DistanceMatrix(IndexedGraph graph) {
+        this.graph = graph;
+        workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace(graph.getVertexCount()));
+    }
+
+    /**
+     * @return the cost to each target, in target order, or {@link Double#POSITIVE_INFINITY} where there is no path
+     */
+    public double[] getCosts(Vertex origin, List<Vertex> targets, RequirementContext context) {
+        double[] costs = new double[targets.size()];
+        getCosts(graph.indexOf(origin), indicesOf(targets), context, workspaces.get(), costs);
+        return costs;
+    }
+
+    public double[][] getCosts(List<Vertex> origins, List<Vertex> targets, RequirementContext context) {
+        return getCosts(origins, targets, context, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runs the search of each origin on the pool.
+     * @return the costs from each origin, in origin order, to each target, in target order
+     */
+    public double[][] getCosts(List<Vertex> origins, List<Vertex> targets, RequirementContext context, ForkJoinPool pool) {
+        long start = System.currentTimeMillis();
+        int[] targetIndices = indicesOf(targets);
+        double[][] costs = new double[origins.size()][targets.size()];
+        pool.invoke(new RangeTask(0, origins.size(), i ->
+                getCosts(graph.indexOf(origins.get(i)), targetIndices, context, workspaces.get(), costs[i])));
+        log.debug("{}x{} costs found in {}ms", origins.size(), targets.size(), System.currentTimeMillis() - start);
+        return costs;
+    }
+
+    private int[] indicesOf(List<Vertex> vertices) {
+        int[] indices = new int[vertices.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = graph.indexOf(vertices.get(i));
+        }
+        return indices;
+    }
+
+    /**
+     * Fills the costs from the origin to each target, leaving the settled costs in the workspace.
+     * @param targetIndices target vertex indices, negative for vertices not in the graph
+     * @param costs filled with the cost to each target, or {@link Double#POSITIVE_INFINITY} where there is no path
+     */
+    public void getCosts(int originIndex, int[] targetIndices, RequirementContext context, SearchWorkspace workspace,
+                         double[] costs) {
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        if (originIndex < 0) {
+            return;
+        }
+        workspace.reset();
+        workspace.requirements.reset(context);
+        int remaining = 0;
+        for (int target : targetIndices) {
+            if (target >= 0 && !workspace.isTarget(target)) {
+                workspace.setTarget(target);
+                remaining++;
+            }
+        }
+        IndexedMinHeap frontier = workspace.frontier;
+        workspace.setSeen(originIndex, 0, -1);
+        frontier.offer(originIndex, 0);
+        while (remaining > 0 && !frontier.isEmpty()) {
+            int current = frontier.poll();
+            workspace.setClosed(current, true);
+            workspace.expanded++;
+            if (workspace.isTarget(current)) {
+                remaining--;
+            }
+            double currentCost = workspace.costs[current];
+            int end = graph.getEdgeEnd(current);
+            for (int edge = graph.getEdgeStart(current); edge < end; edge++) {
+                int requirementId = graph.getEdgeRequirementId(edge);
+                if (requirementId != IndexedGraph.NO_REQUIREMENT
+                        && !workspace.requirements.isMet(graph.getRequirement(requirementId))) {
+                    continue;
+                }
+                int destination = graph.getEdgeDestination(edge);
+                if (workspace.isClosed(destination)) {
+                    continue;
+                }
+                double cost = currentCost + graph.getEdgeCost(edge);
+                if (!workspace.isSeen(destination) || cost < workspace.costs[destination]) {
+                    workspace.setSeen(destination, cost, edge);
+                    frontier.offer(destination, cost);
+                }
+            }
+        }
+        for (int i = 0; i < targetIndices.length; i++) {
+            int target = targetIndices[i];
+            if (target >= 0 && workspace.isClosed(target)) {
+                costs[i] = workspace.costs[target];
+            }
+        }
+    }
+}
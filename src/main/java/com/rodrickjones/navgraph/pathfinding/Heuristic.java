@@ -0,0 +1,26 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.vertices.Vertex;
+
+import java.util.Collection;
+
+/**
+ * Lower bound on the cost from a vertex to the nearest of the destinations, used to guide {@link AStar}.
+ */
+public interface Heuristic {
+    /**
+     * Planar straight line distance, ignoring the plane.
+     */
+    Heuristic EUCLIDEAN = (destinations, currentVertex) -> {
+        double min = Double.MAX_VALUE;
+        for (Vertex destination : destinations) {
+            double h = Math.sqrt(Math.pow(destination.getX() - currentVertex.getX(), 2) + Math.pow(destination.getY() - currentVertex.getY(), 2));
+            if (h < min) {
+                min = h;
+            }
+        }
+        return min;
+    };
+
+    double estimate(Collection<Vertex> destinations, Vertex currentVertex);
+}
@@ -1,134 +1,323 @@
 package com.rodrickjones.navgraph.pathfinding;
 
-import com.rodrickjones.navgraph.Graph;
 import com.rodrickjones.navgraph.HierarchicalGraph;
-import com.rodrickjones.navgraph.SimpleGraph;
+import com.rodrickjones.navgraph.Reachability;
+import com.rodrickjones.navgraph.edges.Edge;
 import com.rodrickjones.navgraph.requirements.RequirementContext;
-import com.rodrickjones.navgraph.util.Frontier;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
 import com.rodrickjones.navgraph.vertices.Vertex;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Slf4j
 public class Hierarchical extends PathfindingAlgorithm<HierarchicalGraph> {
+    private final AStar refinement;
+
     public Hierarchical(HierarchicalGraph graph) {
+        this(graph, Heuristic.EUCLIDEAN);
+    }
+
+    /**
+     * @param heuristic the heuristic used when refining the sub region path into a vertex path
+     */
+    public Hierarchical(HierarchicalGraph graph, Heuristic heuristic) {
         super(graph);
+        this.refinement = new AStar(graph, heuristic);
     }
 
     @Override
     public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context) {
+        return findPath(origin, destinations, new RequirementMemo(context));
+    }
+
+    @Override
+    protected Path findPath(PathQuery query, RequirementMemo requirements) {
+        return findPath(query.getOrigin(), query.getDestinations(), requirements);
+    }
+
+    /**
+     * @param requirements shared by every local search, portal edge and refinement of the query
+     */
+    private Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementMemo requirements) {
         long start = System.currentTimeMillis();
-        //find path of sections
+        RequirementContext context = requirements.getContext();
+        //Local searches without a context skip every edge with a requirement
+        RequirementMemo localRequirements = context == null ? null : requirements;
         HierarchicalGraph.SubRegion originSubRegion = graph.getSubRegion(origin);
-        Collection<HierarchicalGraph.SubRegion> destinationSubRegions = destinations.stream().map(graph::getSubRegion)
-                .filter(Objects::nonNull).collect(Collectors.toList());
+        Map<HierarchicalGraph.SubRegion, List<Vertex>> destinationSubRegions = new HashMap<>();
+        for (Vertex destination : destinations) {
+            HierarchicalGraph.SubRegion subRegion = graph.getSubRegion(destination);
+            if (subRegion != null) {
+                destinationSubRegions.computeIfAbsent(subRegion, k -> new ArrayList<>()).add(destination);
+            }
+        }
         if (originSubRegion == null || destinationSubRegions.isEmpty()) {
-            log.warn("Unable to find origin and destination sub regions: origin={}, origin SubRegion={}, destination={}, destination SubRegion={}", origin, originSubRegion, destinations, destinationSubRegions);
+            log.warn("Unable to find origin and destination sub regions: origin={}, origin SubRegion={}, destination={}, destination SubRegion={}", origin, originSubRegion, destinations, destinationSubRegions.keySet());
             log.trace("No path, unable to find both sub regions: {}ms", System.currentTimeMillis() - start);
             return null;
         }
-        Queue<SubRegionNode> frontier = new Frontier<>(Comparator.comparingDouble(SubRegionNode::getCost));
-        frontier.add(new SubRegionNode(originSubRegion, null, 0));
-        Map<HierarchicalGraph.SubRegion, SubRegionNode> explored = new HashMap<>();
-        SimpleGraph leanGraph = null;
-        while (!frontier.isEmpty()) {
-            SubRegionNode current = frontier.poll();
-            if (destinationSubRegions.contains(current.getSubRegion())) {
-                leanGraph = new SimpleGraph();
-                addToGraph(leanGraph, current.getSubRegion());
-                while ((current = current.getParent()) != null) {
-                    addToGraph(leanGraph, current.getSubRegion());
+        Reachability reachability = graph.getReachability();
+        if (!reachability.mayReach(originSubRegion, destinationSubRegions.keySet(), requirements)) {
+            log.trace("No path, destination sub regions are in other components: {}ms", System.currentTimeMillis() - start);
+            return null;
+        }
+        //Without a context local searches answer differently to any context meeting the same requirements
+        boolean cacheable = context != null;
+        if (cacheable && reachability.isKnownUnreachable(origin, destinations, requirements)) {
+            log.trace("No path, already searched: {}ms", System.currentTimeMillis() - start);
+            return null;
+        }
+
+        //Portals only sit on representative crossings, so destinations beside the origin are searched for directly
+        Set<HierarchicalGraph.SubRegion> nearby = getNearbySubRegions(originSubRegion);
+        List<Vertex> nearbyDestinations = new ArrayList<>();
+        for (Map.Entry<HierarchicalGraph.SubRegion, List<Vertex>> entry : destinationSubRegions.entrySet()) {
+            if (nearby.contains(entry.getKey())) {
+                nearbyDestinations.addAll(entry.getValue());
+            }
+        }
+        Path direct = nearbyDestinations.isEmpty() ? null
+                : refinement.findPath(origin, nearbyDestinations, requirements, v -> nearby.contains(graph.getSubRegion(v)));
+        double best = direct == null ? Double.POSITIVE_INFINITY : direct.getCost();
+        Vertex bestExit = null;
+
+        //Leg from the origin to the entrances of its own sub region
+        List<HierarchicalGraph.Portal> originPortals = graph.getPortals(originSubRegion);
+        List<Vertex> originTargets = new ArrayList<>();
+        originPortals.forEach(p -> originTargets.add(p.getVertex()));
+        Map<Vertex, Double> originCosts = graph.getLocalCosts(origin, originSubRegion, localRequirements, originTargets);
+
+        //Legs from the entrances of each destination sub region to its nearest destination, one backwards search each
+        Map<HierarchicalGraph.Portal, Exit> exits = new HashMap<>();
+        for (Map.Entry<HierarchicalGraph.SubRegion, List<Vertex>> entry : destinationSubRegions.entrySet()) {
+            List<HierarchicalGraph.Portal> portals = graph.getPortals(entry.getKey());
+            double[] costs = new double[portals.size()];
+            Vertex[] nearest = new Vertex[portals.size()];
+            graph.getExitCosts(entry.getKey(), localRequirements, entry.getValue(), costs, nearest);
+            for (int i = 0; i < costs.length; i++) {
+                if (nearest[i] != null) {
+                    exits.put(portals.get(i), new Exit(nearest[i], costs[i]));
                 }
+            }
+        }
+
+        //Clusters holding a destination are searched through the level below, so the search descends as it gets close
+        List<Set<Integer>> destinationClusters = new ArrayList<>();
+        for (int level = 1; level < graph.getLevelCount(); level++) {
+            Set<Integer> clusters = new HashSet<>();
+            for (List<Vertex> subRegionDestinations : destinationSubRegions.values()) {
+                for (Vertex destination : subRegionDestinations) {
+                    clusters.add(graph.getClusterId(level, destination));
+                }
+            }
+            destinationClusters.add(clusters);
+        }
+
+        Queue<PortalNode> frontier = new PriorityQueue<>(Comparator.comparingDouble(PortalNode::getCost));
+        Map<HierarchicalGraph.Portal, PortalNode> explored = new HashMap<>();
+        for (HierarchicalGraph.Portal portal : originPortals) {
+            Double cost = originCosts.get(portal.getVertex());
+            if (cost != null) {
+                PortalNode node = new PortalNode(portal, null, null, cost);
+                explored.put(portal, node);
+                frontier.add(node);
+            }
+        }
+        PortalNode bestNode = null;
+        while (!frontier.isEmpty()) {
+            PortalNode current = frontier.poll();
+            if (current.getCost() >= best) {
                 break;
             }
-            explored.put(current.getSubRegion(), current);
-            Collection<HierarchicalGraph.SubRegionEdge> subRegionEdges = graph.getEdges(current.getSubRegion());
-            if (subRegionEdges != null) {
-                for (HierarchicalGraph.SubRegionEdge edge : subRegionEdges) {
-                    if (!edge.canTraverse(context)) {
-                        continue;
-                    }
-
-                    SubRegionNode node = explored.get(edge.getDestination());
-                    double cost = current.getCost() + edge.getCost();
-                    if (node == null) {
-                        node = new SubRegionNode(edge.getDestination(), current, cost);
-                        if (!frontier.contains(node)) {
-                            frontier.add(node);
-                        }
-                    } else if (cost < node.getCost()) {
-                        node.setParent(current, edge);
-                    }
+            if (explored.get(current.getPortal()) != current) {
+                continue;
+            }
+            Exit exit = exits.get(current.getPortal());
+            if (exit != null && current.getCost() + exit.cost < best) {
+                best = current.getCost() + exit.cost;
+                bestNode = current;
+                bestExit = exit.destination;
+            }
+            int level = getSearchLevel(current.getPortal(), destinationClusters, requirements);
+            for (HierarchicalGraph.PortalEdge edge : current.getPortal().getEdges(level)) {
+                if (!edge.canTraverse(requirements)) {
+                    continue;
+                }
+                double cost = current.getCost() + edge.getCost();
+                PortalNode node = explored.get(edge.getDestination());
+                if (node == null || cost < node.getCost()) {
+                    node = new PortalNode(edge.getDestination(), current, edge, cost);
+                    explored.put(edge.getDestination(), node);
+                    frontier.add(node);
                 }
             }
         }
-        if (leanGraph != null) {
-            log.trace("Lean graph found in {}ms: {}", System.currentTimeMillis() - start, leanGraph);
-            PathfindingAlgorithm<Graph> pathfindingAlgorithm = new AStar(leanGraph);
-            Path path = pathfindingAlgorithm.findPath(origin, destinations, context);
+        if (bestExit == null && direct != null) {
+            log.trace("Direct path found in {}ms", System.currentTimeMillis() - start);
+            return direct;
+        }
+        if (bestExit == null) {
+            //Legs inside sub regions only follow requirement free edges, so confirm with an exact search before caching
+            Path path = refinement.findPath(origin, destinations, requirements, null);
             if (path != null) {
-                log.trace("Path created: {}ms", System.currentTimeMillis() - start);
-            } else {
-                //We should never see this, unless the SubRegion linking has issues
-                log.error("No path, unable to find path: {}ms", System.currentTimeMillis() - start);
+                log.warn("Portal path missed for subregions: origin={}, destinations={}", originSubRegion, destinationSubRegions.keySet());
+                return path;
             }
-            return path;
+            log.trace("No path, unable to find portal path: {}ms", System.currentTimeMillis() - start);
+            if (cacheable) {
+                reachability.addUnreachable(origin, destinations, requirements);
+            }
+            return null;
+        }
+        log.trace("Portal path found in {}ms, {} portals explored", System.currentTimeMillis() - start, explored.size());
+        Path path = refine(origin, originSubRegion, bestNode, bestExit, requirements);
+        if (path != null) {
+            log.trace("Path created: {}ms, {}", System.currentTimeMillis() - start, requirements);
         } else {
-            log.warn("Unable to find lean graph for subregions: origin={}, destinations={}", originSubRegion, destinationSubRegions);
-            log.trace("No path, unable to find lean graph: {}ms", System.currentTimeMillis() - start);
+            //We should never see this, unless the portal linking has issues
+            log.error("No path, unable to find path: {}ms", System.currentTimeMillis() - start);
+        }
+        return path;
+    }
+
+    /**
+     * @return the sub region and every sub region it has an edge into
+     */
+    private Set<HierarchicalGraph.SubRegion> getNearbySubRegions(HierarchicalGraph.SubRegion subRegion) {
+        Set<HierarchicalGraph.SubRegion> nearby = new HashSet<>();
+        nearby.add(subRegion);
+        Collection<HierarchicalGraph.SubRegionEdge> edges = graph.getEdges(subRegion);
+        if (edges != null) {
+            edges.forEach(e -> nearby.add(e.getDestination()));
+        }
+        return nearby;
+    }
+
+    /**
+     * @return the highest level the portal is an entrance of whose cluster holds no destination and hides no gated
+     * crossing the requirements meet
+     */
+    private int getSearchLevel(HierarchicalGraph.Portal portal, List<Set<Integer>> destinationClusters, RequirementMemo requirements) {
+        for (int level = portal.getLevel(); level > 0; level--) {
+            if (!destinationClusters.get(level - 1).contains(graph.getClusterId(level, portal.getVertex()))
+                    && !graph.hidesMetGate(level, portal.getVertex(), requirements)) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Expands the chosen portal route into vertices, searching only inside the sub region of each leg.
+     */
+    private Path refine(Vertex origin, HierarchicalGraph.SubRegion originSubRegion, PortalNode last, Vertex exit, RequirementMemo requirements) {
+        LinkedList<PortalNode> route = new LinkedList<>();
+        for (PortalNode node = last; node != null; node = node.getParent()) {
+            route.addFirst(node);
+        }
+        List<Vertex> vertices = new ArrayList<>();
+        List<Edge> edges = new ArrayList<>();
+        vertices.add(origin);
+        Vertex current = origin;
+        HierarchicalGraph.SubRegion subRegion = originSubRegion;
+        for (PortalNode node : route) {
+            HierarchicalGraph.PortalEdge edge = node.getEdge();
+            boolean appended = edge == null
+                    ? append(vertices, edges, current, node.getPortal().getVertex(), subRegion, requirements)
+                    : append(vertices, edges, edge, requirements);
+            if (!appended) {
+                return null;
+            }
+            current = node.getPortal().getVertex();
+            subRegion = node.getPortal().getSubRegion();
+        }
+        if (!append(vertices, edges, current, exit, subRegion, requirements)) {
             return null;
         }
+        return new Path(vertices, edges);
+    }
+
+    /**
+     * Appends a portal edge, unpacking legs of higher level clusters one level at a time.
+     */
+    private boolean append(List<Vertex> vertices, List<Edge> edges, HierarchicalGraph.PortalEdge leg, RequirementMemo requirements) {
+        if (leg.getEdge() != null) {
+            edges.add(leg.getEdge());
+            vertices.add(leg.getEdge().getDestination());
+            return true;
+        }
+        if (leg.getLevel() == 0) {
+            return append(vertices, edges, leg.getOrigin().getVertex(), leg.getDestination().getVertex(),
+                    leg.getOrigin().getSubRegion(), requirements);
+        }
+        List<HierarchicalGraph.PortalEdge> route = graph.expand(leg);
+        if (route == null) {
+            return false;
+        }
+        for (HierarchicalGraph.PortalEdge edge : route) {
+            if (!append(vertices, edges, edge, requirements)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private void addToGraph(Graph leanGraph, HierarchicalGraph.SubRegion subRegion) {
-        for (Vertex v : subRegion.getVertices()) {
-            leanGraph.addVertex(v);
-            leanGraph.addEdges(graph.getEdges(v));
+    private boolean append(List<Vertex> vertices, List<Edge> edges, Vertex from, Vertex to,
+                           HierarchicalGraph.SubRegion subRegion, RequirementMemo requirements) {
+        if (from.equals(to)) {
+            return true;
+        }
+        Path leg = refinement.findPath(from, Collections.singletonList(to), requirements, v -> subRegion.equals(graph.getSubRegion(v)));
+        if (leg == null) {
+            return false;
         }
+        vertices.addAll(leg.getVertices().subList(1, leg.getVertices().size()));
+        edges.addAll(leg.getEdges());
+        return true;
     }
 
-    public static class SubRegionNode {
-        final HierarchicalGraph.SubRegion subRegion;
-        SubRegionNode parent;
-        double cost;
+    /**
+     * The nearest destination from a portal of a destination sub region, and the cost to reach it.
+     */
+    private static class Exit {
+        private final Vertex destination;
+        private final double cost;
 
-        SubRegionNode(HierarchicalGraph.SubRegion subRegion, SubRegionNode parent, double cost) {
-            this.subRegion = subRegion;
+        Exit(Vertex destination, double cost) {
+            this.destination = destination;
+            this.cost = cost;
+        }
+    }
+
+    public static class PortalNode {
+        final HierarchicalGraph.Portal portal;
+        final PortalNode parent;
+        final HierarchicalGraph.PortalEdge edge;
+        final double cost;
+
+        PortalNode(HierarchicalGraph.Portal portal, PortalNode parent, HierarchicalGraph.PortalEdge edge, double cost) {
+            this.portal = portal;
             this.parent = parent;
+            this.edge = edge;
             this.cost = cost;
         }
 
-        public HierarchicalGraph.SubRegion getSubRegion() {
-            return subRegion;
+        public HierarchicalGraph.Portal getPortal() {
+            return portal;
         }
 
-        public SubRegionNode getParent() {
+        public PortalNode getParent() {
             return parent;
         }
 
-        public void setParent(SubRegionNode parent, HierarchicalGraph.SubRegionEdge edge) {
-            this.parent = parent;
-            this.cost = parent.getCost() + edge.getCost();
+        public HierarchicalGraph.PortalEdge getEdge() {
+            return edge;
         }
 
         public double getCost() {
             return cost;
         }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            SubRegionNode node = (SubRegionNode) o;
-            return Objects.equals(subRegion, node.subRegion);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(subRegion);
-        }
     }
 
 }
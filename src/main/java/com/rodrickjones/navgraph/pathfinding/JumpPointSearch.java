@@ -0,0 +1,335 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.CompactGraph;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.util.IndexedMinHeap;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Jump point search over the grid-regular parts of a {@link CompactGraph}.
+ * <p>
+ * A vertex is open when its only edges are the eight requirement free {@link com.rodrickjones.navgraph.edges.BasicEdge}s
+ * to its neighbours on the same plane, at the grid's straight and diagonal costs. Searches jump across runs of open
+ * vertices, only stopping where the symmetric alternatives around the run stop being open. Every other vertex is
+ * expanded edge by edge, exactly like {@link CompactAStar}.
+ */
+@Slf4j
+public class JumpPointSearch extends PathfindingAlgorithm<CompactGraph> {
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int ROOT = -1;
+
+    private final float straightCost;
+    private final float diagonalCost;
+    /**
+     * Step costs of the heuristic, never above the cheapest adjacent edges so it stays a lower bound
+     */
+    private final float estimateStraightCost;
+    private final float estimateDiagonalCost;
+    private final byte[] gridEdges;
+    private final boolean[] open;
+    private final ThreadLocal<SearchWorkspace> workspaces;
+
+    /**
+     * Uses the most common straight and diagonal edge costs of the graph as the grid costs.
+     */
+    public JumpPointSearch(CompactGraph graph) {
+        this(graph, commonCost(graph, false), commonCost(graph, true));
+    }
+
+    public JumpPointSearch(CompactGraph graph, float straightCost, float diagonalCost) {
+        super(graph);
+        this.straightCost = straightCost;
+        this.diagonalCost = diagonalCost;
+        estimateStraightCost = Math.min(straightCost, cheapestCost(graph, false));
+        estimateDiagonalCost = Math.min(Math.min(diagonalCost, cheapestCost(graph, true)), 2 * estimateStraightCost);
+        int vertexCount = graph.getVertexCount();
+        gridEdges = new byte[vertexCount];
+        open = new boolean[vertexCount];
+        //Pruning relies on detours around a skipped vertex never being more expensive than the jump itself
+        boolean prunable = diagonalCost >= straightCost && diagonalCost <= 2 * straightCost;
+        if (!prunable) {
+            log.warn("Grid costs straight={}, diagonal={} do not allow pruning, searching without jumps", straightCost, diagonalCost);
+        }
+        int openCount = 0;
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            int mask = 0;
+            for (int edge = graph.getEdgeStart(vertex); edge < graph.getEdgeEnd(vertex); edge++) {
+                int direction = getGridDirection(vertex, edge);
+                if (direction >= 0) {
+                    mask |= 1 << direction;
+                }
+            }
+            gridEdges[vertex] = (byte) mask;
+            open[vertex] = prunable && mask == 0xFF && graph.getEdgeEnd(vertex) - graph.getEdgeStart(vertex) == 8;
+            if (open[vertex]) {
+                openCount++;
+            }
+        }
+        log.debug("{} of {} vertices are open grid vertices", openCount, vertexCount);
+        workspaces = ThreadLocal.withInitial(() -> new SearchWorkspace(graph.getVertexCount()));
+    }
+
+    private static float commonCost(CompactGraph graph, boolean diagonal) {
+        return countAdjacentCosts(graph, diagonal).entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(1f);
+    }
+
+    private static float cheapestCost(CompactGraph graph, boolean diagonal) {
+        return countAdjacentCosts(graph, diagonal).keySet().stream().min(Float::compare).orElse(Float.MAX_VALUE);
+    }
+
+    /**
+     * @return how many edges between straight or diagonal neighbours have each cost
+     */
+    private static Map<Float, Integer> countAdjacentCosts(CompactGraph graph, boolean diagonal) {
+        Map<Float, Integer> counts = new HashMap<>();
+        for (int vertex = 0; vertex < graph.getVertexCount(); vertex++) {
+            int vertexId = graph.getVertexId(vertex);
+            for (int edge = graph.getEdgeStart(vertex); edge < graph.getEdgeEnd(vertex); edge++) {
+                int destinationId = graph.getVertexId(graph.getEdgeDestination(edge));
+                int dx = Math.abs(Vertex.getX(destinationId) - Vertex.getX(vertexId));
+                int dy = Math.abs(Vertex.getY(destinationId) - Vertex.getY(vertexId));
+                if (dx <= 1 && dy <= 1 && (dx + dy == 2) == diagonal && dx + dy > 0) {
+                    counts.merge(graph.getEdgeCost(edge), 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the direction of the edge if it is a grid edge at the grid cost, otherwise -1
+     */
+    private int getGridDirection(int vertex, int edge) {
+        if (graph.getEdgeRequirementId(edge) != CompactGraph.NO_REQUIREMENT || graph.isSpecialEdge(edge)) {
+            return -1;
+        }
+        int vertexId = graph.getVertexId(vertex);
+        int destinationId = graph.getVertexId(graph.getEdgeDestination(edge));
+        if (Vertex.getZ(vertexId) != Vertex.getZ(destinationId)) {
+            return -1;
+        }
+        int dx = Vertex.getX(destinationId) - Vertex.getX(vertexId);
+        int dy = Vertex.getY(destinationId) - Vertex.getY(vertexId);
+        for (int direction = 0; direction < 8; direction++) {
+            if (DX[direction] == dx && DY[direction] == dy) {
+                float cost = (direction & 1) == 1 ? diagonalCost : straightCost;
+                return graph.getEdgeCost(edge) == cost ? direction : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the grid edge leaving the vertex in the direction, or -1 if there is none
+     */
+    private int getGridEdge(int vertex, int direction) {
+        if ((gridEdges[vertex] & (1 << direction)) == 0) {
+            return -1;
+        }
+        int vertexId = graph.getVertexId(vertex);
+        int neighbourId = Vertex.hashCode(Vertex.getX(vertexId) + DX[direction], Vertex.getY(vertexId) + DY[direction], Vertex.getZ(vertexId));
+        for (int edge = graph.getEdgeStart(vertex); edge < graph.getEdgeEnd(vertex); edge++) {
+            if (graph.getVertexId(graph.getEdgeDestination(edge)) == neighbourId) {
+                return edge;
+            }
+        }
+        return -1;
+    }
+
+    private int getNeighbour(int vertex, int direction) {
+        int edge = getGridEdge(vertex, direction);
+        return edge < 0 ? -1 : graph.getEdgeDestination(edge);
+    }
+
+    private boolean isOpen(int vertex) {
+        return vertex >= 0 && open[vertex];
+    }
+
+    /**
+     * A jump can pass through the vertex when it and the vertices the symmetric detours run through are open.
+     */
+    private boolean isClean(int vertex, int direction) {
+        if (!open[vertex]) {
+            return false;
+        }
+        int offset = (direction & 1) == 1 ? 3 : 2;
+        return isOpen(getNeighbour(vertex, (direction + offset) & 7)) && isOpen(getNeighbour(vertex, (direction - offset) & 7));
+    }
+
+    @Override
+    public Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context) {
+        long start = System.currentTimeMillis();
+        int originIndex = graph.indexOf(origin);
+        int[] destinationIndices = destinations.stream().mapToInt(graph::indexOf).filter(i -> i >= 0).toArray();
+        if (originIndex < 0 || destinationIndices.length == 0) {
+            log.debug("Unable to build path, unknown vertices: {} -> {}", origin, destinations);
+            return null;
+        }
+        SearchWorkspace workspace = workspaces.get();
+        int destination = search(originIndex, destinationIndices, context, workspace);
+        if (destination < 0) {
+            log.debug("Unable to build path, {}ms: {} -> {}", System.currentTimeMillis() - start, origin, destinations);
+            return null;
+        }
+        Path res = backtrackAndBuildPath(workspace, destination);
+        log.debug("Path built in {}ms: {}", System.currentTimeMillis() - start, res);
+        log.trace("Expanded: {}, {}", workspace.getExpanded(), workspace.getRequirementMemo());
+        return res;
+    }
+
+    /**
+     * Parents are either an edge index, or for jumps {@code -2 - (origin * 8 + direction)}.
+     * @return the index of the destination reached, or -1 if none are reachable
+     */
+    public int search(int originIndex, int[] destinationIndices, RequirementContext context, SearchWorkspace workspace) {
+        workspace.reset();
+        workspace.requirements.reset(context);
+        for (int destination : destinationIndices) {
+            workspace.setTarget(destination);
+        }
+        IndexedMinHeap frontier = workspace.frontier;
+        workspace.setSeen(originIndex, 0, ROOT);
+        frontier.offer(originIndex, heuristic(originIndex, destinationIndices));
+        while (!frontier.isEmpty()) {
+            int current = frontier.poll();
+            if (workspace.isTarget(current)) {
+                return current;
+            }
+            workspace.setClosed(current, true);
+            workspace.expanded++;
+            double currentCost = workspace.costs[current];
+            if (!open[current]) {
+                for (int edge = graph.getEdgeStart(current); edge < graph.getEdgeEnd(current); edge++) {
+                    int requirementId = graph.getEdgeRequirementId(edge);
+                    if (requirementId != CompactGraph.NO_REQUIREMENT && !workspace.requirements.isMet(graph.getRequirement(requirementId))) {
+                        continue;
+                    }
+                    relax(workspace, graph.getEdgeDestination(edge), currentCost + graph.getEdgeCost(edge), edge, destinationIndices);
+                }
+                continue;
+            }
+            int parent = workspace.parentEdges[current];
+            int arrival = parent < ROOT ? (-parent - 2) & 7 : -1;
+            if (arrival >= 0 && isClean(current, arrival)) {
+                //Natural neighbours only, everything else is reached at least as cheaply around this vertex
+                jump(workspace, current, currentCost, arrival, destinationIndices);
+                if ((arrival & 1) == 1) {
+                    jump(workspace, current, currentCost, (arrival + 1) & 7, destinationIndices);
+                    jump(workspace, current, currentCost, (arrival - 1) & 7, destinationIndices);
+                }
+            } else {
+                for (int direction = 0; direction < 8; direction++) {
+                    jump(workspace, current, currentCost, direction, destinationIndices);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void jump(SearchWorkspace workspace, int from, double fromCost, int direction, int[] destinationIndices) {
+        boolean diagonal = (direction & 1) == 1;
+        float stepCost = diagonal ? diagonalCost : straightCost;
+        int current = from;
+        double cost = fromCost;
+        while (true) {
+            current = getNeighbour(current, direction);
+            if (current < 0) {
+                return;
+            }
+            cost += stepCost;
+            if (workspace.isTarget(current) || !isClean(current, direction)
+                    || diagonal && (scan(workspace, current, (direction + 1) & 7) || scan(workspace, current, (direction - 1) & 7))) {
+                relax(workspace, current, cost, -2 - (from * 8 + direction), destinationIndices);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if a straight jump from the vertex would stop somewhere
+     */
+    private boolean scan(SearchWorkspace workspace, int from, int direction) {
+        int current = from;
+        while ((current = getNeighbour(current, direction)) >= 0) {
+            if (workspace.isTarget(current) || !isClean(current, direction)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void relax(SearchWorkspace workspace, int vertex, double cost, int parent, int[] destinationIndices) {
+        if (workspace.isSeen(vertex) && cost >= workspace.costs[vertex]) {
+            return;
+        }
+        workspace.setSeen(vertex, cost, parent);
+        workspace.setClosed(vertex, false);
+        workspace.frontier.offer(vertex, cost + heuristic(vertex, destinationIndices));
+    }
+
+    /**
+     * Octile distance to the nearest destination, at the grid costs or the cheapest adjacent edges if those are lower.
+     */
+    public double heuristic(int vertexIndex, int[] destinationIndices) {
+        int vertexId = graph.getVertexId(vertexIndex);
+        int x = Vertex.getX(vertexId);
+        int y = Vertex.getY(vertexId);
+        double min = Double.MAX_VALUE;
+        for (int destination : destinationIndices) {
+            int destinationId = graph.getVertexId(destination);
+            int dx = Math.abs(Vertex.getX(destinationId) - x);
+            int dy = Math.abs(Vertex.getY(destinationId) - y);
+            double h = estimateStraightCost * Math.abs(dx - dy) + estimateDiagonalCost * Math.min(dx, dy);
+            if (h < min) {
+                min = h;
+            }
+        }
+        return min;
+    }
+
+    private Path backtrackAndBuildPath(SearchWorkspace workspace, int destination) {
+        ArrayList<Vertex> vertices = new ArrayList<>();
+        ArrayList<Edge> edges = new ArrayList<>();
+        List<Integer> run = new ArrayList<>();
+        int current = destination;
+        int parent;
+        while ((parent = workspace.parentEdges[current]) != ROOT) {
+            if (parent >= 0) {
+                vertices.add(graph.getVertexAt(current));
+                int origin = graph.getEdgeOrigin(parent);
+                edges.add(graph.getEdge(origin, parent));
+                current = origin;
+                continue;
+            }
+            int jump = -parent - 2;
+            int origin = jump >>> 3;
+            int direction = jump & 7;
+            run.clear();
+            int step = origin;
+            while (step != current) {
+                int edge = getGridEdge(step, direction);
+                run.add(edge);
+                step = graph.getEdgeDestination(edge);
+            }
+            for (int i = run.size() - 1; i >= 0; i--) {
+                int edge = run.get(i);
+                vertices.add(graph.getVertexAt(graph.getEdgeDestination(edge)));
+                edges.add(graph.getEdge(i == 0 ? origin : graph.getEdgeDestination(run.get(i - 1)), edge));
+            }
+            current = origin;
+        }
+        vertices.add(graph.getVertexAt(current));
+
+        vertices.trimToSize();
+        edges.trimToSize();
+
+        Collections.reverse(vertices);
+        Collections.reverse(edges);
+        return new Path(vertices, edges);
+    }
+}
@@ -0,0 +1,272 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.CompactGraph;
+import com.rodrickjones.navgraph.IndexedGraph;
+import com.rodrickjones.navgraph.util.IndexedMinHeap;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * ALT heuristic: lower bounds from the triangle inequality over precomputed distances to and from a set of landmarks.
+ * Distances are computed over every edge regardless of requirements, so the bounds hold for any
+ * {@link com.rodrickjones.navgraph.requirements.RequirementContext}.
+ * Pass it to {@link CompactAStar#CompactAStar(IndexedGraph, LandmarkHeuristic)}, which stays exact with it.
+ */
+@Slf4j
+public class LandmarkHeuristic implements Heuristic {
+    private static final int MAGIC = 0x4e474c4d;
+    private static final int VERSION = 1;
+
+    private final int[] vertexIds;
+    private final int[] landmarks;
+    private final float[][] fromLandmark;
+    private final float[][] toLandmark;
+    private final ThreadLocal<DestinationCache> destinationCache = ThreadLocal.withInitial(DestinationCache::new);
+
+    private LandmarkHeuristic(int[] vertexIds, int[] landmarks, float[][] fromLandmark, float[][] toLandmark) {
+        this.vertexIds = vertexIds;
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+    }
+
+    /**
+     * Picks landmarks by farthest-point selection and computes their distance tables.
+     * Builds the graph's incoming edge index if it does not have one.
+     */
+    public static LandmarkHeuristic build(CompactGraph graph, int landmarkCount) {
+        long start = System.currentTimeMillis();
+        graph.indexIncomingEdges();
+        int vertexCount = graph.getVertexCount();
+        int[] vertexIds = new int[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            vertexIds[i] = graph.getVertexId(i);
+        }
+        landmarkCount = Math.min(landmarkCount, vertexCount);
+        int[] landmarks = new int[landmarkCount];
+        float[][] fromLandmark = new float[landmarkCount][];
+        float[][] toLandmark = new float[landmarkCount][];
+        IndexedMinHeap frontier = new IndexedMinHeap(vertexCount);
+        float[] nearest = new float[vertexCount];
+        Arrays.fill(nearest, Float.POSITIVE_INFINITY);
+        //Seed with the vertex farthest from an arbitrary start, rather than the start itself
+        int next = farthest(distances(graph, 0, true, frontier));
+        for (int i = 0; i < landmarkCount && next >= 0; i++) {
+            landmarks[i] = next;
+            fromLandmark[i] = distances(graph, next, true, frontier);
+            toLandmark[i] = distances(graph, next, false, frontier);
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                nearest[vertex] = Math.min(nearest[vertex], fromLandmark[i][vertex]);
+            }
+            next = farthest(nearest);
+            if (i + 1 < landmarkCount && next < 0) {
+                landmarkCount = i + 1;
+                landmarks = Arrays.copyOf(landmarks, landmarkCount);
+                fromLandmark = Arrays.copyOf(fromLandmark, landmarkCount);
+                toLandmark = Arrays.copyOf(toLandmark, landmarkCount);
+            }
+        }
+        log.info("{} landmarks computed in {}ms", landmarkCount, System.currentTimeMillis() - start);
+        return new LandmarkHeuristic(vertexIds, landmarks, fromLandmark, toLandmark);
+    }
+
+    /**
+     * Unreachable vertices count as farthest, so landmarks also get placed in components not yet covered.
+     * @return the farthest vertex, or -1 if every distance is zero
+     */
+    private static int farthest(float[] distances) {
+        int farthest = -1;
+        float max = 0;
+        for (int vertex = 0; vertex < distances.length; vertex++) {
+            float distance = distances[vertex];
+            if (distance == Float.POSITIVE_INFINITY) {
+                return vertex;
+            }
+            if (distance > max) {
+                max = distance;
+                farthest = vertex;
+            }
+        }
+        return farthest;
+    }
+
+    private static float[] distances(CompactGraph graph, int source, boolean forward, IndexedMinHeap frontier) {
+        float[] distances = new float[graph.getVertexCount()];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        distances[source] = 0;
+        frontier.clear();
+        frontier.offer(source, 0);
+        while (!frontier.isEmpty()) {
+            int current = frontier.poll();
+            float distance = distances[current];
+            int end = forward ? graph.getEdgeEnd(current) : graph.getIncomingEnd(current);
+            for (int i = forward ? graph.getEdgeStart(current) : graph.getIncomingStart(current); i < end; i++) {
+                int edge = forward ? i : graph.getIncomingEdge(i);
+                int neighbour = forward ? graph.getEdgeDestination(edge) : graph.getIncomingOrigin(i);
+                float cost = distance + graph.getEdgeCost(edge);
+                if (cost < distances[neighbour]) {
+                    distances[neighbour] = cost;
+                    frontier.offer(neighbour, cost);
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * @return whether the graph indexes its vertices the same way as the one the landmarks were built from
+     */
+    public boolean isBuiltFor(IndexedGraph graph) {
+        if (graph.getVertexCount() != vertexIds.length) {
+            return false;
+        }
+        for (int i = 0; i < vertexIds.length; i++) {
+            if (graph.getVertexId(i) != vertexIds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getLandmarkCount() {
+        return landmarks.length;
+    }
+
+    public Vertex getLandmark(int landmark) {
+        return new Vertex(vertexIds[landmarks[landmark]]);
+    }
+
+    @Override
+    public double estimate(Collection<Vertex> destinations, Vertex currentVertex) {
+        int vertex = Arrays.binarySearch(vertexIds, currentVertex.hashCode());
+        if (vertex < 0) {
+            return 0;
+        }
+        DestinationCache cache = destinationCache.get();
+        if (!cache.matches(destinations)) {
+            cache.ids = destinations.stream().mapToInt(Vertex::hashCode).toArray();
+            cache.indices = Arrays.stream(cache.ids).map(id -> Arrays.binarySearch(vertexIds, id))
+                    .filter(i -> i >= 0).toArray();
+        }
+        return estimate(vertex, cache.indices);
+    }
+
+    /**
+     * @param vertex index of the vertex in the graph the landmarks were built from
+     * @param destinations indices of the destinations in the same graph
+     */
+    public double estimate(int vertex, int[] destinations) {
+        double min = Double.MAX_VALUE;
+        for (int destination : destinations) {
+            double h = estimate(vertex, destination);
+            if (h < min) {
+                min = h;
+            }
+        }
+        return destinations.length == 0 ? 0 : min;
+    }
+
+    public double estimate(int vertex, int destination) {
+        double max = 0;
+        for (int landmark = 0; landmark < landmarks.length; landmark++) {
+            float[] from = fromLandmark[landmark];
+            float[] to = toLandmark[landmark];
+            //d(L, t) <= d(L, v) + d(v, t)
+            double bound = from[destination] - from[vertex];
+            if (bound > max && from[vertex] != Float.POSITIVE_INFINITY) {
+                max = bound;
+            }
+            //d(v, L) <= d(v, t) + d(t, L)
+            bound = to[vertex] - to[destination];
+            if (bound > max && to[destination] != Float.POSITIVE_INFINITY) {
+                max = bound;
+            }
+        }
+        return max;
+    }
+
+    public void writeToFile(File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(vertexIds.length);
+            dos.writeInt(landmarks.length);
+            for (int vertexId : vertexIds) {
+                dos.writeInt(vertexId);
+            }
+            for (int landmark = 0; landmark < landmarks.length; landmark++) {
+                dos.writeInt(landmarks[landmark]);
+                for (float distance : fromLandmark[landmark]) {
+                    dos.writeFloat(distance);
+                }
+                for (float distance : toLandmark[landmark]) {
+                    dos.writeFloat(distance);
+                }
+            }
+        }
+    }
+
+    public static LandmarkHeuristic readFromFile(File file) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IllegalStateException(file + " is not a landmark table");
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IllegalStateException("Version mismatch: File=" + version + ", LandmarkHeuristic=" + VERSION);
+            }
+            int vertexCount = dis.readInt();
+            int landmarkCount = dis.readInt();
+            int[] vertexIds = new int[vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                vertexIds[i] = dis.readInt();
+            }
+            int[] landmarks = new int[landmarkCount];
+            float[][] fromLandmark = new float[landmarkCount][vertexCount];
+            float[][] toLandmark = new float[landmarkCount][vertexCount];
+            for (int landmark = 0; landmark < landmarkCount; landmark++) {
+                landmarks[landmark] = dis.readInt();
+                for (int i = 0; i < vertexCount; i++) {
+                    fromLandmark[landmark][i] = dis.readFloat();
+                }
+                for (int i = 0; i < vertexCount; i++) {
+                    toLandmark[landmark][i] = dis.readFloat();
+                }
+            }
+            return new LandmarkHeuristic(vertexIds, landmarks, fromLandmark, toLandmark);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LandmarkHeuristic{" +
+                "vertices=" + vertexIds.length +
+                ", landmarks=" + landmarks.length +
+                '}';
+    }
+
+    /**
+     * Destination indices of the last query on this thread, so each estimate does not binary search them again.
+     */
+    private static class DestinationCache {
+        int[] ids = new int[0];
+        int[] indices = new int[0];
+
+        boolean matches(Collection<Vertex> destinations) {
+            if (destinations.size() != ids.length) {
+                return false;
+            }
+            int i = 0;
+            for (Vertex destination : destinations) {
+                if (destination.hashCode() != ids[i++]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.vertices.Vertex;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * One origin, destinations and context query for {@link PathfindingAlgorithm#findPaths(java.util.List)}.
+ */
+public class PathQuery {
+    private final Vertex origin;
+    private final Collection<Vertex> destinations;
+    private final RequirementContext context;
+
+    public PathQuery(Vertex origin, Collection<Vertex> destinations, RequirementContext context) {
+        this.origin = origin;
+        this.destinations = destinations;
+        this.context = context;
+    }
+
+    public PathQuery(Vertex origin, Vertex destination, RequirementContext context) {
+        this(origin, Collections.singletonList(destination), context);
+    }
+
+    public Vertex getOrigin() {
+        return origin;
+    }
+
+    public Collection<Vertex> getDestinations() {
+        return destinations;
+    }
+
+    public RequirementContext getContext() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return "PathQuery{" +
+                "origin=" + origin +
+                ", destinations=" + destinations +
+                '}';
+    }
+}
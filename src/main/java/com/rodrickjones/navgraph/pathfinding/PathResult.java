@@ -0,0 +1,60 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+/**
+ * The answer to a {@link PathQuery}, or the failure that stopped it, with the time it took.
+ */
+public class PathResult {
+    private final PathQuery query;
+    private final Path path;
+    private final RuntimeException failure;
+    private final long nanos;
+
+    public PathResult(PathQuery query, Path path, long nanos) {
+        this.query = query;
+        this.path = path;
+        this.failure = null;
+        this.nanos = nanos;
+    }
+
+    public PathResult(PathQuery query, RuntimeException failure, long nanos) {
+        this.query = query;
+        this.path = null;
+        this.failure = failure;
+        this.nanos = nanos;
+    }
+
+    public PathQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the path found, or null if there is none or the query failed
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return what the query threw, or null if it completed
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PathResult{" +
+                "query=" + query +
+                (failure != null ? ", failure=" + failure : ", cost=" + (path == null ? "none" : path.getCost())) +
+                ", nanos=" + nanos +
+                '}';
+    }
+}
@@ -4,18 +4,80 @@ import com.rodrickjones.navgraph.Graph;
 import com.rodrickjones.navgraph.edges.Edge;
 import com.rodrickjones.navgraph.vertices.Vertex;
 import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
+import com.rodrickjones.navgraph.util.IntList;
+import com.rodrickjones.navgraph.util.RangeTask;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public abstract class PathfindingAlgorithm<T extends Graph> {
+    private static final int BATCH_CHUNK_SIZE = 64;
     protected final T graph;
 
     public PathfindingAlgorithm(T graph) {
         this.graph = graph;
     }
 
+    public T getGraph() {
+        return graph;
+    }
+
     public abstract Path findPath(Vertex origin, Collection<Vertex> destinations, RequirementContext context);
 
+    /**
+     * Answers a query of a batch, sharing requirement answers with the other queries of its chunk.
+     * Searches that memoize by {@link com.rodrickjones.navgraph.requirements.Requirement#getEvaluationId()}
+     * override this, the default searches with the query's context alone.
+     * @param requirements answers under the query's context, only used by this thread
+     */
+    protected Path findPath(PathQuery query, RequirementMemo requirements) {
+        return findPath(query.getOrigin(), query.getDestinations(), query.getContext());
+    }
+
+    public List<PathResult> findPaths(List<PathQuery> queries) {
+        return findPaths(queries, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Answers the queries on the pool. Queries sharing a context are split into chunks that each run on a single
+     * worker and share one set of requirement answers, while searches reuse their per-thread state.
+     * <p>
+     * Contexts are grouped by identity, so queries only share answers when they hold the same context instance.
+     * Equal but distinct contexts, such as one read per request, each get their own.
+     * @return a result for every query, in query order. A query that throws does not affect the others, its
+     * result holds the failure instead of a path.
+     */
+    public List<PathResult> findPaths(List<PathQuery> queries, ForkJoinPool pool) {
+        Map<RequirementContext, IntList> groups = new IdentityHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            groups.computeIfAbsent(queries.get(i).getContext(), k -> new IntList()).add(i);
+        }
+        List<int[]> chunks = new ArrayList<>();
+        for (IntList group : groups.values()) {
+            int[] indices = group.toArray();
+            for (int from = 0; from < indices.length; from += BATCH_CHUNK_SIZE) {
+                chunks.add(Arrays.copyOfRange(indices, from, Math.min(from + BATCH_CHUNK_SIZE, indices.length)));
+            }
+        }
+        PathResult[] results = new PathResult[queries.size()];
+        pool.invoke(new RangeTask(0, chunks.size(), c -> {
+            int[] chunk = chunks.get(c);
+            RequirementMemo requirements = new RequirementMemo(queries.get(chunk[0]).getContext());
+            for (int i : chunk) {
+                PathQuery query = queries.get(i);
+                long start = System.nanoTime();
+                try {
+                    Path path = findPath(query, requirements);
+                    results[i] = new PathResult(query, path, System.nanoTime() - start);
+                } catch (RuntimeException e) {
+                    results[i] = new PathResult(query, e, System.nanoTime() - start);
+                }
+            }
+        }));
+        return Arrays.asList(results);
+    }
+
     protected Path backtrackAndBuildPath(Node current) {
         ArrayList<Vertex> vertices = new ArrayList<>();
         ArrayList<Edge> edges = new ArrayList<>();
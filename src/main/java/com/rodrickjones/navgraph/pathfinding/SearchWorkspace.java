@@ -0,0 +1,121 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.IndexedGraph;
+import com.rodrickjones.navgraph.requirements.RequirementMemo;
+import com.rodrickjones.navgraph.util.IndexedMinHeap;
+import com.rodrickjones.navgraph.vertices.Vertex;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Reusable per-thread state for searches over a {@link com.rodrickjones.navgraph.CompactGraph}.
+ * Every array is indexed by dense vertex index and invalidated by bumping a generation stamp,
+ * so starting a new query never clears or allocates.
+ */
+public class SearchWorkspace {
+    final double[] costs;
+    final int[] parentEdges;
+    final IndexedMinHeap frontier;
+    final RequirementMemo requirements = new RequirementMemo();
+    private final int[] seen;
+    private final int[] closed;
+    private final int[] targets;
+    private int[] indexBuffer = new int[1];
+    private int[] indices = new int[1];
+    private int generation;
+    int expanded;
+
+    public SearchWorkspace(int vertexCount) {
+        costs = new double[vertexCount];
+        parentEdges = new int[vertexCount];
+        frontier = new IndexedMinHeap(vertexCount);
+        seen = new int[vertexCount];
+        closed = new int[vertexCount];
+        targets = new int[vertexCount];
+    }
+
+    public int getCapacity() {
+        return costs.length;
+    }
+
+    void reset() {
+        frontier.clear();
+        expanded = 0;
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            Arrays.fill(targets, 0);
+            generation = 1;
+        }
+    }
+
+    boolean isSeen(int vertex) {
+        return seen[vertex] == generation;
+    }
+
+    void setSeen(int vertex, double cost, int parentEdge) {
+        seen[vertex] = generation;
+        costs[vertex] = cost;
+        parentEdges[vertex] = parentEdge;
+    }
+
+    boolean isClosed(int vertex) {
+        return closed[vertex] == generation;
+    }
+
+    void setClosed(int vertex, boolean value) {
+        closed[vertex] = value ? generation : 0;
+    }
+
+    boolean isTarget(int vertex) {
+        return targets[vertex] == generation;
+    }
+
+    void setTarget(int vertex) {
+        targets[vertex] = generation;
+    }
+
+    /**
+     * Looks up the indices of the vertices in the graph, skipping those it does not have. The returned array is
+     * reused by the next call that finds the same number, so it is only valid until then.
+     */
+    int[] indicesOf(IndexedGraph graph, Collection<Vertex> vertices) {
+        if (indexBuffer.length < vertices.size()) {
+            indexBuffer = new int[vertices.size()];
+        }
+        int count = 0;
+        for (Vertex vertex : vertices) {
+            int index = graph.indexOf(vertex);
+            if (index >= 0) {
+                indexBuffer[count++] = index;
+            }
+        }
+        if (indices.length != count) {
+            indices = new int[count];
+        }
+        System.arraycopy(indexBuffer, 0, indices, 0, count);
+        return indices;
+    }
+
+    /**
+     * @return the best known cost to the vertex in the last search, or {@link Double#POSITIVE_INFINITY} if it was not reached
+     */
+    public double getCost(int vertex) {
+        return isSeen(vertex) ? costs[vertex] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the number of vertices expanded by the last search
+     */
+    public int getExpanded() {
+        return expanded;
+    }
+
+    /**
+     * @return the requirement answers of the last search, with its evaluation and hit counts
+     */
+    public RequirementMemo getRequirementMemo() {
+        return requirements;
+    }
+}
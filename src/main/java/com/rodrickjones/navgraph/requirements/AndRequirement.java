@@ -5,6 +5,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class AndRequirement extends Requirement {
     public final static int TYPE = 1;
@@ -33,7 +34,43 @@ public class AndRequirement extends Requirement {
 
     @Override
     public boolean isMet(RequirementContext context) {
-        return requirements.stream().allMatch(r -> r.isMet(context));
+        for (Requirement requirement : requirements) {
+            if (!requirement.isMet(context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Nested AndRequirements are merged into this one, so the compiled form is a single loop over its operands.
+     */
+    @Override
+    public CompiledRequirement compile(ContextSlots slots) {
+        List<CompiledRequirement> operands = new ArrayList<>();
+        flatten(slots, operands);
+        if (operands.size() == 1) {
+            return operands.get(0);
+        }
+        CompiledRequirement[] array = operands.toArray(new CompiledRequirement[0]);
+        return context -> {
+            for (CompiledRequirement operand : array) {
+                if (!operand.isMet(context)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private void flatten(ContextSlots slots, List<CompiledRequirement> operands) {
+        for (Requirement requirement : requirements) {
+            if (requirement instanceof AndRequirement) {
+                ((AndRequirement) requirement).flatten(slots, operands);
+            } else {
+                operands.add(requirement.compile(slots));
+            }
+        }
     }
 
     @Override
@@ -41,6 +78,23 @@ public class AndRequirement extends Requirement {
         return TYPE;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AndRequirement that = (AndRequirement) o;
+        return Objects.equals(requirements, that.requirements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(TYPE, requirements);
+    }
+
     @Override
     public String toString() {
         return "AndRequirement{" +
@@ -5,7 +5,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class BasicRequirementContext implements RequirementContext {
-    private Map<String, Object> map = new HashMap<>();
+    private final Map<String, Object> map;
+    /**
+     * Values by {@link ContextSlots#getDefault() default slot}, the slots {@link Requirement#getCompiled()} reads.
+     * Replaced whole, never written after being published, as contexts are shared between search threads.
+     */
+    private volatile Object[] values;
 
     public BasicRequirementContext(InputStream in) throws IOException {
         try (DataInputStream dis = new DataInputStream(in)) {
@@ -28,6 +33,19 @@ public class BasicRequirementContext implements RequirementContext {
                 map.put(key, value);
             }
         }
+        values = resolveSlots();
+    }
+
+    private Object[] resolveSlots() {
+        ContextSlots slots = ContextSlots.getDefault();
+        Object[] values = new Object[slots.size()];
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            int slot = slots.findSlot(entry.getKey());
+            if (slot != ContextSlots.NO_SLOT && slot < values.length) {
+                values[slot] = entry.getValue();
+            }
+        }
+        return values;
     }
 
     @Override
@@ -51,4 +69,17 @@ public class BasicRequirementContext implements RequirementContext {
     public <T> T getContextValue(String key, Class<T> tClass) {
         return tClass.cast(map.get(key));
     }
+
+    /**
+     * @param slot a slot from the {@link ContextSlots#getDefault() default slots}
+     */
+    public <T> T getContextValue(int slot, Class<T> tClass) {
+        Object[] values = this.values;
+        if (slot >= values.length) {
+            //Slot handed out after this context was created, the whole array is built before it is published
+            values = resolveSlots();
+            this.values = values;
+        }
+        return tClass.cast(values[slot]);
+    }
 }
@@ -0,0 +1,9 @@
+package com.rodrickjones.navgraph.requirements;
+
+/**
+ * A {@link Requirement} flattened for evaluation, see {@link Requirement#compile(ContextSlots)}.
+ */
+@FunctionalInterface
+public interface CompiledRequirement {
+    boolean isMet(RequirementContext context);
+}
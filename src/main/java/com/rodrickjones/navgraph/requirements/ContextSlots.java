@@ -0,0 +1,45 @@
+package com.rodrickjones.navgraph.requirements;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Numbers the context keys that compiled requirements read, so a {@link BasicRequirementContext} can resolve its
+ * keys once and requirements can read values by array index instead of by name.
+ */
+public class ContextSlots {
+    public static final int NO_SLOT = -1;
+    private static final ContextSlots DEFAULT = new ContextSlots();
+
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * @return the slot of the key, assigning the next free one if the key has none yet
+     */
+    public synchronized int getSlot(String key) {
+        return slots.computeIfAbsent(key, k -> slots.size());
+    }
+
+    /**
+     * @return the slot of the key, or {@link #NO_SLOT} if no requirement has asked for it
+     */
+    public synchronized int findSlot(String key) {
+        Integer slot = slots.get(key);
+        return slot == null ? NO_SLOT : slot;
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    public static ContextSlots getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public String toString() {
+        return "ContextSlots{" +
+                "slots=" + size() +
+                '}';
+    }
+}
@@ -5,6 +5,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class OrRequirement extends Requirement {
     public final static int TYPE = 0;
@@ -32,12 +33,65 @@ public class OrRequirement extends Requirement {
 
     @Override
     public boolean isMet(RequirementContext context) {
-        return requirements.stream().anyMatch(r -> r.isMet(context));
+        for (Requirement requirement : requirements) {
+            if (requirement.isMet(context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Nested OrRequirements are merged into this one, so the compiled form is a single loop over its operands.
+     */
+    @Override
+    public CompiledRequirement compile(ContextSlots slots) {
+        List<CompiledRequirement> operands = new ArrayList<>();
+        flatten(slots, operands);
+        if (operands.size() == 1) {
+            return operands.get(0);
+        }
+        CompiledRequirement[] array = operands.toArray(new CompiledRequirement[0]);
+        return context -> {
+            for (CompiledRequirement operand : array) {
+                if (operand.isMet(context)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private void flatten(ContextSlots slots, List<CompiledRequirement> operands) {
+        for (Requirement requirement : requirements) {
+            if (requirement instanceof OrRequirement) {
+                ((OrRequirement) requirement).flatten(slots, operands);
+            } else {
+                operands.add(requirement.compile(slots));
+            }
+        }
     }
 
     @Override
     public int getType() {
-        return 10;
+        return TYPE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        OrRequirement that = (OrRequirement) o;
+        return Objects.equals(requirements, that.requirements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(TYPE, requirements);
     }
 
     @Override
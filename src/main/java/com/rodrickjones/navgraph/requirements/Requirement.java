@@ -4,8 +4,17 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Requirements are immutable. Implementations should override {@link Object#equals(Object)} and
+ * {@link Object#hashCode()} structurally, so a {@link RequirementPool} can share identical trees.
+ */
 public abstract class Requirement {
+    private static final AtomicInteger EVALUATION_IDS = new AtomicInteger();
+    private volatile CompiledRequirement compiled;
+    private volatile int evaluationId = -1;
+
     public Requirement() {
     }
 
@@ -21,6 +30,47 @@ public abstract class Requirement {
 
     public abstract int getType();
 
+    /**
+     * Builds the form searches evaluate. Leaves reading a {@link BasicRequirementContext} should override this to
+     * resolve their keys with {@link ContextSlots#getSlot(String)} here and read them with
+     * {@link BasicRequirementContext#getContextValue(int, Class)}, the default simply calls {@link #isMet}.
+     */
+    public CompiledRequirement compile(ContextSlots slots) {
+        return this::isMet;
+    }
+
+    /**
+     * @return this requirement compiled against the {@link ContextSlots#getDefault() default slots}, compiled once
+     * and shared by every search
+     */
+    public CompiledRequirement getCompiled() {
+        CompiledRequirement compiled = this.compiled;
+        if (compiled == null) {
+            //Compiling twice on a race is harmless, both results are equivalent
+            compiled = compile(ContextSlots.getDefault());
+            this.compiled = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * @return a dense id handed out the first time this instance is asked for one, indexing it in a
+     * {@link RequirementMemo}. Interned requirements share it, as they are one instance.
+     */
+    public int getEvaluationId() {
+        int id = evaluationId;
+        if (id < 0) {
+            synchronized (this) {
+                id = evaluationId;
+                if (id < 0) {
+                    id = EVALUATION_IDS.getAndIncrement();
+                    evaluationId = id;
+                }
+            }
+        }
+        return id;
+    }
+
     public void writeToDataStream(DataOutputStream dos) throws IOException {
         dos.writeInt(getType());
     }
@@ -0,0 +1,107 @@
+package com.rodrickjones.navgraph.requirements;
+
+import java.util.Arrays;
+
+/**
+ * Answers of the requirements evaluated during one query. The context does not change mid-search, so each distinct
+ * requirement is evaluated at most once and every later check is two bit tests.
+ * <p>
+ * Requirements are indexed by {@link Requirement#getEvaluationId()}, whichever graph or pool they came from.
+ * Not thread safe.
+ */
+public class RequirementMemo {
+    private RequirementContext context;
+    private long[] known = new long[1];
+    private long[] met = new long[1];
+    private Requirement[] evaluated = new Requirement[16];
+    private int[] evaluatedIds = new int[16];
+    private int evaluations;
+    private int hits;
+
+    public RequirementMemo() {
+    }
+
+    public RequirementMemo(RequirementContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Forgets every answer and starts memoizing against the given context.
+     */
+    public void reset(RequirementContext context) {
+        this.context = context;
+        //Only the words of the requirements evaluated can be set, however high the ids have grown
+        for (int i = 0; i < evaluations; i++) {
+            known[evaluatedIds[i] >>> 6] = 0;
+        }
+        Arrays.fill(evaluated, 0, evaluations, null);
+        evaluations = 0;
+        hits = 0;
+    }
+
+    public boolean isMet(Requirement requirement) {
+        int id = requirement.getEvaluationId();
+        int word = id >>> 6;
+        long bit = 1L << id;
+        if (word >= known.length) {
+            int length = Math.max(word + 1, known.length * 2);
+            known = Arrays.copyOf(known, length);
+            met = Arrays.copyOf(met, length);
+        }
+        if ((known[word] & bit) != 0) {
+            hits++;
+            return (met[word] & bit) != 0;
+        }
+        if (evaluations == evaluated.length) {
+            evaluated = Arrays.copyOf(evaluated, evaluations * 2);
+            evaluatedIds = Arrays.copyOf(evaluatedIds, evaluations * 2);
+        }
+        evaluated[evaluations] = requirement;
+        evaluatedIds[evaluations++] = id;
+        boolean result = requirement.getCompiled().isMet(context);
+        known[word] |= bit;
+        met[word] = result ? met[word] | bit : met[word] & ~bit;
+        return result;
+    }
+
+    /**
+     * @param index below {@link #getEvaluations()}, in evaluation order
+     */
+    public Requirement getEvaluated(int index) {
+        return evaluated[index];
+    }
+
+    /**
+     * @return the answer of {@link #getEvaluated(int)}, without counting a hit
+     */
+    public boolean wasMet(int index) {
+        int id = evaluatedIds[index];
+        return (met[id >>> 6] & 1L << id) != 0;
+    }
+
+    public RequirementContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return the number of requirements actually evaluated since the last reset
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return the number of checks answered from the memo since the last reset
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    @Override
+    public String toString() {
+        return "RequirementMemo{" +
+                "evaluations=" + evaluations +
+                ", hits=" + hits +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+package com.rodrickjones.navgraph.requirements;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns requirements so that structurally equal trees share one instance. Requirements that do not override
+ * {@link Object#equals(Object)} are only shared with themselves.
+ * <p>
+ * A pool keeps every requirement it interned reachable, so give each load its own rather than sharing one for the
+ * life of the process. Thread safe without a global lock, as graph shards are read in parallel.
+ */
+public class RequirementPool {
+    private final ConcurrentMap<Requirement, Requirement> canonical = new ConcurrentHashMap<>();
+
+    /**
+     * @return the instance equal to the requirement that was interned first, or the requirement itself if it is new
+     */
+    public Requirement intern(Requirement requirement) {
+        Requirement existing = canonical.putIfAbsent(requirement, requirement);
+        return existing != null ? existing : requirement;
+    }
+
+    public int size() {
+        return canonical.size();
+    }
+
+    @Override
+    public String toString() {
+        return "RequirementPool{" +
+                "size=" + size() +
+                '}';
+    }
+}
@@ -6,15 +6,32 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class RequirementReader {
-    private static final RequirementReader DEFAULT = new RequirementReader() {
+    /**
+     * Does not intern, so it holds nothing between loads
+     */
+    private static final RequirementReader DEFAULT = new RequirementReader(null) {
         @Override
         public void registerParser(int type, RequirementParser requirementParser) {
             throw new UnsupportedOperationException("Cannot register custom readers to the Default RequirementReaders");
         }
     };
     private final Map<Integer, RequirementParser> requirementParserMap = new HashMap<>();
+    private final RequirementPool pool;
 
+    /**
+     * Interns into a pool of its own, so use one reader per load.
+     */
     public RequirementReader() {
+        this(new RequirementPool());
+    }
+
+    /**
+     * @param pool interns every requirement read, including the children of {@link AndRequirement}s and
+     *             {@link OrRequirement}s, so identical trees read by any reader sharing the pool are one instance,
+     *             or null to not intern
+     */
+    public RequirementReader(RequirementPool pool) {
+        this.pool = pool;
         requirementParserMap.put(OrRequirement.TYPE, in -> new OrRequirement(in, this));
         requirementParserMap.put(AndRequirement.TYPE, in -> new AndRequirement(in, this));
     }
@@ -38,7 +55,15 @@ public class RequirementReader {
         if (reader == null) {
             throw new IllegalStateException("Unsupported requirement type: " + type);
         }
-        return reader.parseRequirement(in);
+        Requirement requirement = reader.parseRequirement(in);
+        return pool == null ? requirement : pool.intern(requirement);
+    }
+
+    /**
+     * @return the pool requirements are interned into, or null if they are not
+     */
+    public RequirementPool getPool() {
+        return pool;
     }
 
     public static RequirementReader getDefault() {
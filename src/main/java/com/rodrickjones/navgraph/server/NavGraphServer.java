@@ -1,5 +1,8 @@
 package com.rodrickjones.navgraph.server;
 
+import com.rodrickjones.navgraph.GraphPatch;
+import com.rodrickjones.navgraph.MappedGraph;
+import com.rodrickjones.navgraph.pathfinding.CompactAStar;
 import com.rodrickjones.navgraph.pathfinding.PathfindingAlgorithm;
 import com.rodrickjones.navgraph.requirements.RequirementReader;
 import com.rodrickjones.navgraph.util.GraphIO;
@@ -22,25 +25,27 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 @Slf4j
 public class NavGraphServer {
-    private final HierarchicalGraph graph;
-    private final PathfindingAlgorithm<HierarchicalGraph> pathfindingAlgorithm;
+    private final AtomicReference<PathfindingAlgorithm<?>> pathfindingAlgorithm;
     private final HttpServer server;
     private final Function<DataInputStream, RequirementContext> contextFunction;
 
+    /**
+     * Serves a {@link MappedGraph} file with {@link CompactAStar}, or a graph zip with {@link Hierarchical}.
+     */
     public NavGraphServer(File file, String hostname, int port, Function<DataInputStream, RequirementContext> contextFunction) throws IOException {
+        this(load(file), hostname, port, contextFunction);
+    }
+
+    public NavGraphServer(PathfindingAlgorithm<?> pathfindingAlgorithm, String hostname, int port,
+                          Function<DataInputStream, RequirementContext> contextFunction) throws IOException {
+        this.pathfindingAlgorithm = new AtomicReference<>(pathfindingAlgorithm);
         this.contextFunction = contextFunction;
         long start = System.currentTimeMillis();
-        graph = GraphIO.readFromZip(file, HierarchicalGraph.class, EdgeReader.getDefault(), RequirementReader.getDefault());
-        if (graph == null) {
-            throw new IllegalStateException("No graph loaded");
-        }
-        graph.compile();
-        pathfindingAlgorithm = new Hierarchical(graph);
-
         server = HttpServer.create();
         server.bind(new InetSocketAddress(hostname, port), 0);
         HttpContext context = server.createContext("/nav-graph/findPath", exchange -> {
@@ -56,7 +61,8 @@ public class NavGraphServer {
                 }
                 reqContext = contextFunction.apply(input);
             }
-            Path path = pathfindingAlgorithm.findPath(origin, destinations, reqContext);
+            //Each request runs entirely against the snapshot current when it arrived
+            Path path = this.pathfindingAlgorithm.get().findPath(origin, destinations, reqContext);
             if (path != null) {
                 exchange.sendResponseHeaders(200, 0);
                 try (DataOutputStream out = new DataOutputStream(exchange.getResponseBody())) {
@@ -71,6 +77,55 @@ public class NavGraphServer {
         log.info("Server started in " + (System.currentTimeMillis() - start) + "ms");
     }
 
+    private static PathfindingAlgorithm<?> load(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        PathfindingAlgorithm<?> pathfindingAlgorithm;
+        if (MappedGraph.isMappedGraph(file)) {
+            //A reader per load, so its requirement pool is released with the graph
+            pathfindingAlgorithm = new CompactAStar(MappedGraph.readFromFile(file, EdgeReader.getDefault(), new RequirementReader()));
+        } else {
+            HierarchicalGraph graph = GraphIO.readFromZip(file, HierarchicalGraph.class, EdgeReader.getDefault(), new RequirementReader());
+            if (graph == null) {
+                throw new IllegalStateException("No graph loaded");
+            }
+            //Compiled hierarchy is cached next to the graph, and recompiled whenever the graph changes
+            graph.compile(new File(file.getPath() + ".hierarchy"));
+            pathfindingAlgorithm = new Hierarchical(graph);
+        }
+        log.info("Graph loaded in " + (System.currentTimeMillis() - start) + "ms");
+        return pathfindingAlgorithm;
+    }
+
+    public PathfindingAlgorithm<?> getPathfindingAlgorithm() {
+        return pathfindingAlgorithm.get();
+    }
+
+    /**
+     * Replaces the algorithm serving new requests, requests already running finish on the previous one.
+     */
+    public void setPathfindingAlgorithm(PathfindingAlgorithm<?> pathfindingAlgorithm) {
+        this.pathfindingAlgorithm.set(pathfindingAlgorithm);
+    }
+
+    /**
+     * Builds a patched copy of the served {@link HierarchicalGraph} and swaps in the algorithm built over it once
+     * complete. Patches are applied one at a time.
+     * @param algorithmFunction builds the algorithm serving the patched graph, such as
+     *                          {@code graph -> new Hierarchical(graph, heuristic)}, so the configuration it was
+     *                          served with carries over
+     * @see HierarchicalGraph#withPatch(GraphPatch)
+     */
+    public synchronized void applyPatch(GraphPatch patch, Function<HierarchicalGraph, PathfindingAlgorithm<?>> algorithmFunction) {
+        long start = System.currentTimeMillis();
+        PathfindingAlgorithm<?> current = pathfindingAlgorithm.get();
+        if (!(current.getGraph() instanceof HierarchicalGraph)) {
+            throw new IllegalStateException("Patches need a HierarchicalGraph, serving " + current.getGraph().getClass().getSimpleName());
+        }
+        HierarchicalGraph graph = ((HierarchicalGraph) current.getGraph()).withPatch(patch);
+        pathfindingAlgorithm.set(algorithmFunction.apply(graph));
+        log.info("Patch applied in " + (System.currentTimeMillis() - start) + "ms: " + patch);
+    }
+
     public void stop() {
         server.stop(5);
     }
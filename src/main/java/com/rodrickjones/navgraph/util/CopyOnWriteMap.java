@@ -0,0 +1,132 @@
+package com.rodrickjones.navgraph.util;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Map layered over another that it never modifies, so a changed copy of a large map costs only what changed.
+ * Values read from the base are shared with it, so a value about to be modified is copied out of it first through
+ * {@link #getMutable(Object)}. The base must not change while this map is in use.
+ * <p>
+ * Null values are not supported, a removed key is recorded as a null override.
+ */
+public class CopyOnWriteMap<K, V> extends AbstractMap<K, V> {
+    /**
+     * Layers stacked deeper than this are flattened into a plain base, so lookups stay cheap across many copies.
+     */
+    private static final int MAX_DEPTH = 4;
+
+    private final Map<K, V> base;
+    private final Map<K, V> overrides = new HashMap<>();
+    private final UnaryOperator<V> copier;
+    private final int depth;
+    private int size;
+
+    /**
+     * @param copier copies a value shared with the base, so the copy can be modified
+     */
+    public CopyOnWriteMap(Map<K, V> base, UnaryOperator<V> copier) {
+        int depth = base instanceof CopyOnWriteMap ? ((CopyOnWriteMap<K, V>) base).depth + 1 : 1;
+        if (depth > MAX_DEPTH) {
+            base = new HashMap<>(base);
+            depth = 1;
+        }
+        this.base = base;
+        this.copier = copier;
+        this.depth = depth;
+        this.size = base.size();
+    }
+
+    @Override
+    public V get(Object key) {
+        V value = overrides.get(key);
+        if (value != null || overrides.containsKey(key)) {
+            return value;
+        }
+        return base.get(key);
+    }
+
+    /**
+     * @return the value, copied out of the base first if it is shared with it, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V getMutable(Object key) {
+        V value = overrides.get(key);
+        if (value != null || overrides.containsKey(key)) {
+            return value;
+        }
+        value = base.get(key);
+        if (value != null) {
+            value = copier.apply(value);
+            overrides.put((K) key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        V previous = get(key);
+        overrides.put(key, value);
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        V previous = get(key);
+        if (previous != null) {
+            if (base.containsKey(key)) {
+                overrides.put((K) key, null);
+            } else {
+                overrides.remove(key);
+            }
+            size--;
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                Iterator<Entry<K, V>> shared = base.entrySet().stream()
+                        .filter(e -> !overrides.containsKey(e.getKey())).iterator();
+                Iterator<Entry<K, V>> own = overrides.entrySet().stream()
+                        .filter(e -> e.getValue() != null).iterator();
+                return new Iterator<Entry<K, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return shared.hasNext() || own.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        return shared.hasNext() ? shared.next() : own.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
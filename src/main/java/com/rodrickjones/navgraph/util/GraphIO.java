@@ -1,54 +1,103 @@
 package com.rodrickjones.navgraph.util;
 
+import com.rodrickjones.navgraph.CompactGraph;
+import com.rodrickjones.navgraph.edges.BasicEdge;
 import com.rodrickjones.navgraph.edges.Edge;
 import com.rodrickjones.navgraph.Graph;
 import com.rodrickjones.navgraph.SimpleGraph;
 import com.rodrickjones.navgraph.edges.EdgeReader;
+import com.rodrickjones.navgraph.requirements.Requirement;
 import com.rodrickjones.navgraph.requirements.RequirementReader;
 import com.rodrickjones.navgraph.vertices.Vertex;
 
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+/**
+ * Reads and writes graph zips. Version 1 zips hold a "vertices" and an "edges" entry of full width records.
+ * Version 2 zips start with a "version" entry, store vertices as sorted varint deltas, keep distinct requirements
+ * in a "requirements" dictionary, and group edges by origin with destinations as signed varint offsets.
+ * Version 3 zips split the version 2 vertices and edges into "vertices/i" and "edges/i" shards over contiguous
+ * runs of sorted vertex ids, bands of rows per plane, which are inflated and decoded concurrently.
+ * Readers detect the version from the zip.
+ */
 public class GraphIO {
-    //    public final static String VERSION = "1.0.0";
+    public final static int VERSION = 3;
+    public final static int DEFAULT_SHARD_COUNT = 16;
     public final static Charset CHARSET = StandardCharsets.US_ASCII;
+    /**
+     * Marks a {@link BasicEdge} written in the compact layout, anything else is written as a version 1 edge record
+     */
+    private final static int COMPACT_EDGE = 0;
+    private final static int RECORD_EDGE = 1;
 
     public static <T extends Graph> T readFromZip(File zipFile, Class<T> tClass,
                                                   EdgeReader edgeReader,
                                                   RequirementReader requirementReader) {
-        try (ZipInputStream zipIn = new ZipInputStream(new FileInputStream(zipFile), CHARSET);
-             DataInputStream dataIn = new DataInputStream(zipIn)) {
+        return readFromZip(zipFile, tClass, edgeReader, requirementReader, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads a graph zip, decoding the shards of a version 3 zip on the given pool.
+     * Version 2 and 3 zips are bulk loaded into a {@link SimpleGraph} through
+     * {@link SimpleGraph#addTrusted(Collection, Collection)}, call {@link SimpleGraph#validate()} for zips from
+     * elsewhere.
+     */
+    public static <T extends Graph> T readFromZip(File zipFile, Class<T> tClass,
+                                                  EdgeReader edgeReader,
+                                                  RequirementReader requirementReader,
+                                                  ForkJoinPool pool) {
+        try {
             T graph = tClass.getConstructor().newInstance();
-            ZipEntry entry;
-            while ((entry = zipIn.getNextEntry()) != null) {
-                switch (entry.getName()) {
-//                    case "version":
-//                        String version = dataIn.readUTF();
-//                        if (!VERSION.equals(version)) {
-//                            throw new IllegalStateException("Version mismatch: Zip=" + version + ", GraphIO=" + VERSION);
-//                        }
-//                        break;
-                    case "vertices":
-                        int vertexCount = dataIn.readInt();
-                        for (int i = 0; i < vertexCount; i++) {
-                            graph.addVertex(Vertex.readFromDataStream(dataIn));
-                        }
-                        break;
-                    case "edges":
-                        int edgeCount = dataIn.readInt();
-                        for (int i = 0; i < edgeCount; i++) {
-                            graph.addEdge(edgeReader.readEdge(dataIn, requirementReader));
+            read(zipFile, edgeReader, requirementReader, pool, new ShardSink() {
+                @Override
+                public void addVertex(int vertex) {
+                    graph.addVertex(new Vertex(vertex));
+                }
+
+                @Override
+                public void addEdge(Edge edge) {
+                    graph.addEdge(edge);
+                }
+
+                @Override
+                public void addShards(List<Shard> shards) {
+                    if (!(graph instanceof SimpleGraph)) {
+                        ShardSink.super.addShards(shards);
+                        return;
+                    }
+                    //Shards were written by this class, so they are loaded without per element checks
+                    int vertexCount = 0;
+                    int edgeCount = 0;
+                    for (Shard shard : shards) {
+                        vertexCount += shard.vertices.size();
+                        edgeCount += shard.getEdgeCount();
+                    }
+                    List<Vertex> vertices = new ArrayList<>(vertexCount);
+                    List<Edge> edges = new ArrayList<>(edgeCount);
+                    for (Shard shard : shards) {
+                        for (int i = 0; i < shard.vertices.size(); i++) {
+                            vertices.add(new Vertex(shard.vertices.get(i)));
                         }
-                        break;
+                        shard.forEachEdge(edges::add);
+                    }
+                    ((SimpleGraph) graph).addTrusted(vertices, edges);
                 }
-            }
+            });
             return graph;
         } catch (IOException | InstantiationException | InvocationTargetException | NoSuchMethodException | IllegalAccessException e) {
             e.printStackTrace();
@@ -57,42 +106,547 @@ public class GraphIO {
     }
 
 
-    public static void writeToZip(SimpleGraph graph, File zipFile, int compressionLevel) {
-        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zipFile), CHARSET);
-             DataOutputStream dos = new DataOutputStream(zipOut)) {
-            zipOut.setLevel(compressionLevel);
+    /**
+     * Reads a graph zip straight into a {@link CompactGraph}, without building an intermediate {@link SimpleGraph}.
+     * Edges in the compact layout go from the decoded shards to the builder as ids, without an {@link Edge} object.
+     */
+    public static CompactGraph readCompactFromZip(File zipFile, EdgeReader edgeReader, RequirementReader requirementReader) {
+        return readCompactFromZip(zipFile, edgeReader, requirementReader, ForkJoinPool.commonPool());
+    }
+
+    public static CompactGraph readCompactFromZip(File zipFile, EdgeReader edgeReader, RequirementReader requirementReader,
+                                                  ForkJoinPool pool) {
+        try {
+            CompactGraph.Builder builder = new CompactGraph.Builder();
+            read(zipFile, edgeReader, requirementReader, pool, new ShardSink() {
+                @Override
+                public void addVertex(int vertex) {
+                    builder.addVertex(vertex);
+                }
+
+                @Override
+                public void addEdge(Edge edge) {
+                    builder.addEdge(edge);
+                }
+
+                @Override
+                public void addShards(List<Shard> shards) {
+                    for (Shard shard : shards) {
+                        for (int i = 0; i < shard.vertices.size(); i++) {
+                            builder.addVertex(shard.vertices.get(i));
+                        }
+                    }
+                    for (Shard shard : shards) {
+                        int record = 0;
+                        for (int i = 0; i < shard.getEdgeCount(); i++) {
+                            int requirement = shard.requirementIndices.get(i);
+                            if (requirement == Shard.RECORD) {
+                                builder.addEdge(shard.records.get(record++));
+                            } else {
+                                builder.addEdge(shard.origins.get(i), shard.destinations.get(i),
+                                        Float.intBitsToFloat(shard.costs.get(i)), shard.getRequirement(requirement));
+                            }
+                        }
+                    }
+                }
+            });
+            return builder.build();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Streams the vertices and then the edges of a graph zip to the sink as they are decoded, one entry at a time,
+     * without building a graph. Memory use is bounded by the requirement dictionary and the buffers of one entry,
+     * so zips of graphs larger than the heap can be filtered, merged or converted.
+     */
+    public static void read(File zipFile, EdgeReader edgeReader, RequirementReader requirementReader, GraphSink sink) throws IOException {
+        read(zipFile, edgeReader, requirementReader, null, sink);
+    }
+
+    /**
+     * @return the format version of the zip, 1 if it has no version entry
+     */
+    public static int readVersion(File zipFile) throws IOException {
+        try (ZipInputStream zipIn = new ZipInputStream(new FileInputStream(zipFile), CHARSET);
+             DataInputStream dataIn = new DataInputStream(zipIn)) {
+            ZipEntry entry = zipIn.getNextEntry();
+            return entry != null && entry.getName().equals("version") ? dataIn.readInt() : 1;
+        }
+    }
+
+    private static void read(File zipFile, EdgeReader edgeReader, RequirementReader requirementReader,
+                             ForkJoinPool pool, GraphSink sink) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile, CHARSET)) {
+            int version = 1;
+            ZipEntry versionEntry = zip.getEntry("version");
+            if (versionEntry != null) {
+                try (DataInputStream dataIn = open(zip, versionEntry)) {
+                    version = dataIn.readInt();
+                }
+                if (version < 1 || version > VERSION) {
+                    throw new IllegalStateException("Version mismatch: Zip=" + version + ", GraphIO=" + VERSION);
+                }
+            }
+            if (version == 1) {
+                try (DataInputStream dataIn = open(zip, getEntry(zip, "vertices"))) {
+                    int vertexCount = dataIn.readInt();
+                    for (int i = 0; i < vertexCount; i++) {
+                        sink.addVertex(dataIn.readInt());
+                    }
+                }
+                try (DataInputStream dataIn = open(zip, getEntry(zip, "edges"))) {
+                    int edgeCount = dataIn.readInt();
+                    for (int i = 0; i < edgeCount; i++) {
+                        sink.addEdge(edgeReader.readEdge(dataIn, requirementReader));
+                    }
+                }
+                return;
+            }
+
+            List<Requirement> requirements;
+            try (DataInputStream dataIn = open(zip, getEntry(zip, "requirements"))) {
+                int requirementCount = VarInts.readUnsigned(dataIn);
+                requirements = new ArrayList<>(requirementCount);
+                for (int i = 0; i < requirementCount; i++) {
+                    requirements.add(requirementReader.readRequirement(dataIn));
+                }
+            }
+            String[] verticesNames;
+            String[] edgesNames;
+            if (version == 2) {
+                verticesNames = new String[]{"vertices"};
+                edgesNames = new String[]{"edges"};
+            } else {
+                int shardCount;
+                try (DataInputStream dataIn = open(zip, getEntry(zip, "shards"))) {
+                    shardCount = VarInts.readUnsigned(dataIn);
+                }
+                verticesNames = new String[shardCount];
+                edgesNames = new String[shardCount];
+                for (int i = 0; i < shardCount; i++) {
+                    verticesNames[i] = "vertices/" + i;
+                    edgesNames[i] = "edges/" + i;
+                }
+            }
+            if (!(sink instanceof ShardSink)) {
+                for (String name : verticesNames) {
+                    try (DataInputStream dataIn = open(zip, getEntry(zip, name))) {
+                        readVertices(dataIn, sink::addVertex);
+                    }
+                }
+                EdgeVisitor edges = new EdgeVisitor() {
+                    private Vertex origin;
 
-//            ZipEntry versionEntry = new ZipEntry("version");
-//            versionEntry.setComment(VERSION);
-//            zipOut.putNextEntry(versionEntry);
-//            dataOut.writeUTF(VERSION);
+                    @Override
+                    public void visit(int originId, int destinationId, float cost, int requirement) {
+                        if (origin == null || origin.hashCode() != originId) {
+                            origin = new Vertex(originId);
+                        }
+                        sink.addEdge(new BasicEdge(origin, new Vertex(destinationId), cost,
+                                requirement == 0 ? null : requirements.get(requirement - 1)));
+                    }
 
-            ZipEntry verticesEntry = new ZipEntry("vertices");
-            int vertexCount = graph.getVertexCount();
-            verticesEntry.setComment(String.valueOf(vertexCount));
-            zipOut.putNextEntry(verticesEntry);
-            dos.writeInt(vertexCount);
-            for (Vertex vertex : graph.getVertices()) {
-                vertex.writeToDataStream(dos);
+                    @Override
+                    public void visit(Edge edge) {
+                        sink.addEdge(edge);
+                    }
+                };
+                for (String name : edgesNames) {
+                    try (DataInputStream dataIn = open(zip, getEntry(zip, name))) {
+                        readEdges(dataIn, edgeReader, requirementReader, edges);
+                    }
+                }
+                return;
+            }
+            if (version == 2) {
+                ((ShardSink) sink).addShards(Collections.singletonList(readShard(zip, verticesNames[0], edgesNames[0], edgeReader, requirementReader, requirements)));
+                return;
             }
 
-            ZipEntry edgesEntry = new ZipEntry("edges");
-            int edgeCount = graph.getEdgeCount();
-            edgesEntry.setComment(String.valueOf(edgeCount));
-            zipOut.putNextEntry(edgesEntry);
-            dos.writeInt(edgeCount);
-            for (Edge edge : graph.getEdges()) {
-                edge.writeToDataStream(dos);
+            List<Future<Shard>> futures = new ArrayList<>(verticesNames.length);
+            for (int i = 0; i < verticesNames.length; i++) {
+                String vertices = verticesNames[i];
+                String edges = edgesNames[i];
+                futures.add(pool.submit(() -> readShard(zip, vertices, edges, edgeReader, requirementReader, requirements)));
+            }
+            List<Shard> shards = new ArrayList<>(futures.size());
+            for (Future<Shard> future : futures) {
+                try {
+                    shards.add(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading " + zipFile);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IllegalStateException("Unable to read " + zipFile, e.getCause());
+                }
             }
+            //Sinks are not thread safe, decoded shards are merged on this thread
+            ((ShardSink) sink).addShards(shards);
+        }
+    }
+
+    private static ZipEntry getEntry(ZipFile zip, String name) {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IllegalStateException("Missing entry: " + name);
+        }
+        return entry;
+    }
 
+    private static DataInputStream open(ZipFile zip, ZipEntry entry) throws IOException {
+        return new DataInputStream(new BufferedInputStream(zip.getInputStream(entry)));
+    }
+
+    private static Shard readShard(ZipFile zip, String verticesName, String edgesName, EdgeReader edgeReader,
+                                   RequirementReader requirementReader, List<Requirement> requirements) throws IOException {
+        Shard shard = new Shard(requirements);
+        try (DataInputStream dataIn = open(zip, getEntry(zip, verticesName))) {
+            readVertices(dataIn, shard.vertices::add);
+        }
+        try (DataInputStream dataIn = open(zip, getEntry(zip, edgesName))) {
+            readEdges(dataIn, edgeReader, requirementReader, shard);
+        }
+        return shard;
+    }
+
+    private static void readVertices(DataInputStream dataIn, IntConsumer vertices) throws IOException {
+        int vertexCount = VarInts.readUnsigned(dataIn);
+        int vertex = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            vertex += VarInts.readUnsigned(dataIn);
+            vertices.accept(vertex);
+        }
+    }
+
+    private static void readEdges(DataInputStream dataIn, EdgeReader edgeReader, RequirementReader requirementReader,
+                                  EdgeVisitor edges) throws IOException {
+        int originCount = VarInts.readUnsigned(dataIn);
+        int originId = 0;
+        for (int i = 0; i < originCount; i++) {
+            originId += VarInts.readUnsigned(dataIn);
+            int x = Vertex.getX(originId);
+            int y = Vertex.getY(originId);
+            int z = Vertex.getZ(originId);
+            int edgeCount = VarInts.readUnsigned(dataIn);
+            for (int j = 0; j < edgeCount; j++) {
+                int layout = VarInts.readUnsigned(dataIn);
+                if (layout == COMPACT_EDGE) {
+                    int destinationId = Vertex.hashCode(x + VarInts.readSigned(dataIn),
+                            y + VarInts.readSigned(dataIn), z + VarInts.readSigned(dataIn));
+                    float cost = dataIn.readFloat();
+                    edges.visit(originId, destinationId, cost, VarInts.readUnsigned(dataIn));
+                } else if (layout == RECORD_EDGE) {
+                    edges.visit(edgeReader.readEdge(dataIn, requirementReader));
+                } else {
+                    throw new IllegalStateException("Unsupported edge layout: " + layout);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the graph in the given format version, version 3 zips are split into the given number of shards,
+     * at most one per vertex so that no shard is empty.
+     * Edges are written by walking {@link Graph#getEdges(Vertex)} of each vertex, never as one list of every edge.
+     */
+    public static void writeToZip(Graph graph, File zipFile, int compressionLevel, int version, int shardCount) {
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported version: " + version);
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)), CHARSET);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(zipOut))) {
+            zipOut.setLevel(compressionLevel);
+            if (version == 1) {
+                writeVersion1(graph, zipOut, dos);
+            } else {
+                writeSharded(graph, zipOut, dos, version, version == 2 ? 1 : shardCount);
+            }
             zipOut.finish();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public static void writeToZip(SimpleGraph graph, File zipFile) {
+    public static void writeToZip(Graph graph, File zipFile, int compressionLevel, int version) {
+        writeToZip(graph, zipFile, compressionLevel, version, DEFAULT_SHARD_COUNT);
+    }
+
+    public static void writeToZip(Graph graph, File zipFile, int compressionLevel) {
+        writeToZip(graph, zipFile, compressionLevel, VERSION);
+    }
+
+    public static void writeToZip(Graph graph, File zipFile) {
         writeToZip(graph, zipFile, Deflater.BEST_COMPRESSION);
     }
 
+    private static void writeVersion1(Graph graph, ZipOutputStream zipOut, DataOutputStream dos) throws IOException {
+        ZipEntry verticesEntry = new ZipEntry("vertices");
+        int vertexCount = graph.getVertexCount();
+        verticesEntry.setComment(String.valueOf(vertexCount));
+        zipOut.putNextEntry(verticesEntry);
+        dos.writeInt(vertexCount);
+        for (Vertex vertex : graph.getVertices()) {
+            vertex.writeToDataStream(dos);
+        }
+        dos.flush();
+
+        //Counted from the same adjacency walk that writes them, so the count always matches the records
+        int edgeCount = 0;
+        for (Vertex vertex : graph.getVertices()) {
+            Collection<Edge> edges = graph.getEdges(vertex);
+            if (edges != null) {
+                edgeCount += edges.size();
+            }
+        }
+        ZipEntry edgesEntry = new ZipEntry("edges");
+        edgesEntry.setComment(String.valueOf(edgeCount));
+        zipOut.putNextEntry(edgesEntry);
+        dos.writeInt(edgeCount);
+        for (Vertex vertex : graph.getVertices()) {
+            Collection<Edge> edges = graph.getEdges(vertex);
+            if (edges != null) {
+                for (Edge edge : edges) {
+                    edge.writeToDataStream(dos);
+                }
+            }
+        }
+        dos.flush();
+    }
+
+    /**
+     * Writes version 2, a single unsuffixed shard, or version 3 with a "shards" entry ahead of the shards.
+     */
+    private static void writeSharded(Graph graph, ZipOutputStream zipOut, DataOutputStream dos,
+                                     int version, int shardCount) throws IOException {
+        zipOut.putNextEntry(new ZipEntry("version"));
+        dos.writeInt(version);
+        dos.flush();
+
+        int[] vertices = graph.getVertices().stream().mapToInt(Vertex::hashCode).sorted().toArray();
+
+        //Distinct requirement trees, compared by their serialized form
+        Map<Requirement, Integer> requirementIds = new IdentityHashMap<>();
+        Map<ByteBuffer, Integer> serializedIds = new HashMap<>();
+        ByteArrayOutputStream requirementBytes = new ByteArrayOutputStream();
+        DataOutputStream requirementOut = new DataOutputStream(requirementBytes);
+        for (int vertex : vertices) {
+            Collection<Edge> edges = graph.getEdges(new Vertex(vertex));
+            if (edges == null) {
+                continue;
+            }
+            for (Edge edge : edges) {
+                Requirement requirement = edge.getRequirement();
+                if (requirement != null && edge.getType() == BasicEdge.TYPE && !requirementIds.containsKey(requirement)) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    requirement.writeToDataStream(new DataOutputStream(bytes));
+                    Integer id = serializedIds.get(ByteBuffer.wrap(bytes.toByteArray()));
+                    if (id == null) {
+                        id = serializedIds.size();
+                        serializedIds.put(ByteBuffer.wrap(bytes.toByteArray()), id);
+                        bytes.writeTo(requirementOut);
+                    }
+                    requirementIds.put(requirement, id);
+                }
+            }
+        }
+        ZipEntry requirementsEntry = new ZipEntry("requirements");
+        requirementsEntry.setComment(String.valueOf(serializedIds.size()));
+        zipOut.putNextEntry(requirementsEntry);
+        VarInts.writeUnsigned(dos, serializedIds.size());
+        requirementBytes.writeTo(dos);
+        dos.flush();
+
+        if (version == 2) {
+            writeShard(graph, zipOut, dos, "vertices", "edges", vertices, 0, vertices.length, requirementIds);
+            return;
+        }
+        //Every shard costs entry overhead, so none is left without a vertex
+        shardCount = Math.max(1, Math.min(shardCount, vertices.length));
+        zipOut.putNextEntry(new ZipEntry("shards"));
+        VarInts.writeUnsigned(dos, shardCount);
+        dos.flush();
+        for (int i = 0; i < shardCount; i++) {
+            int from = (int) ((long) vertices.length * i / shardCount);
+            int to = (int) ((long) vertices.length * (i + 1) / shardCount);
+            writeShard(graph, zipOut, dos, "vertices/" + i, "edges/" + i, vertices, from, to, requirementIds);
+        }
+    }
+
+    private static void writeShard(Graph graph, ZipOutputStream zipOut, DataOutputStream dos,
+                                   String verticesName, String edgesName, int[] vertices, int from, int to,
+                                   Map<Requirement, Integer> requirementIds) throws IOException {
+        ZipEntry verticesEntry = new ZipEntry(verticesName);
+        verticesEntry.setComment(String.valueOf(to - from));
+        zipOut.putNextEntry(verticesEntry);
+        VarInts.writeUnsigned(dos, to - from);
+        int previous = 0;
+        for (int i = from; i < to; i++) {
+            VarInts.writeUnsigned(dos, vertices[i] - previous);
+            previous = vertices[i];
+        }
+        dos.flush();
+
+        int originCount = 0;
+        int edgeCount = 0;
+        for (int i = from; i < to; i++) {
+            Collection<Edge> edges = graph.getEdges(new Vertex(vertices[i]));
+            if (edges != null && !edges.isEmpty()) {
+                originCount++;
+                edgeCount += edges.size();
+            }
+        }
+        ZipEntry edgesEntry = new ZipEntry(edgesName);
+        edgesEntry.setComment(String.valueOf(edgeCount));
+        zipOut.putNextEntry(edgesEntry);
+        VarInts.writeUnsigned(dos, originCount);
+        previous = 0;
+        for (int i = from; i < to; i++) {
+            int vertex = vertices[i];
+            Vertex origin = new Vertex(vertex);
+            Collection<Edge> edges = graph.getEdges(origin);
+            if (edges == null || edges.isEmpty()) {
+                continue;
+            }
+            VarInts.writeUnsigned(dos, vertex - previous);
+            previous = vertex;
+            VarInts.writeUnsigned(dos, edges.size());
+            for (Edge edge : edges) {
+                if (edge.getType() == BasicEdge.TYPE && edge.getOrigin().equals(origin)) {
+                    Vertex destination = edge.getDestination();
+                    VarInts.writeUnsigned(dos, COMPACT_EDGE);
+                    VarInts.writeSigned(dos, destination.getX() - origin.getX());
+                    VarInts.writeSigned(dos, destination.getY() - origin.getY());
+                    VarInts.writeSigned(dos, destination.getZ() - origin.getZ());
+                    dos.writeFloat(edge.getCost());
+                    VarInts.writeUnsigned(dos, edge.getRequirement() == null ? 0 : requirementIds.get(edge.getRequirement()) + 1);
+                } else {
+                    VarInts.writeUnsigned(dos, RECORD_EDGE);
+                    edge.writeToDataStream(dos);
+                }
+            }
+        }
+        dos.flush();
+    }
+
+    /**
+     * Receives the edges of an edges entry as they are decoded.
+     */
+    private interface EdgeVisitor {
+        /**
+         * An edge in the compact layout.
+         * @param requirement the index of the requirement in the dictionary plus one, or 0 for none
+         */
+        void visit(int originId, int destinationId, float cost, int requirement);
+
+        /**
+         * An edge written as a version 1 record.
+         */
+        void visit(Edge edge);
+    }
+
+    /**
+     * Vertices and edges decoded from one shard, held as ids until the shards are merged into a {@link GraphSink},
+     * so only edges written as records are decoded into objects.
+     */
+    private static class Shard implements EdgeVisitor {
+        /**
+         * Requirement index of an edge held in {@link #records}
+         */
+        private static final int RECORD = -1;
+
+        private final List<Requirement> requirements;
+        private final IntList vertices = new IntList();
+        private final IntList origins = new IntList();
+        private final IntList destinations = new IntList();
+        //Raw float bits
+        private final IntList costs = new IntList();
+        private final IntList requirementIndices = new IntList();
+        private final List<Edge> records = new ArrayList<>(0);
+
+        Shard(List<Requirement> requirements) {
+            this.requirements = requirements;
+        }
+
+        @Override
+        public void visit(int originId, int destinationId, float cost, int requirement) {
+            origins.add(originId);
+            destinations.add(destinationId);
+            costs.add(Float.floatToRawIntBits(cost));
+            requirementIndices.add(requirement);
+        }
+
+        @Override
+        public void visit(Edge edge) {
+            origins.add(edge.getOrigin().hashCode());
+            destinations.add(edge.getDestination().hashCode());
+            costs.add(Float.floatToRawIntBits(edge.getCost()));
+            requirementIndices.add(RECORD);
+            records.add(edge);
+        }
+
+        int getEdgeCount() {
+            return origins.size();
+        }
+
+        Requirement getRequirement(int index) {
+            return index == 0 ? null : requirements.get(index - 1);
+        }
+
+        /**
+         * Builds the edges in decoding order, sharing one origin {@link Vertex} per run of edges.
+         */
+        void forEachEdge(Consumer<Edge> edges) {
+            Vertex origin = null;
+            int record = 0;
+            for (int i = 0; i < getEdgeCount(); i++) {
+                int requirement = requirementIndices.get(i);
+                if (requirement == RECORD) {
+                    edges.accept(records.get(record++));
+                    continue;
+                }
+                if (origin == null || origin.hashCode() != origins.get(i)) {
+                    origin = new Vertex(origins.get(i));
+                }
+                edges.accept(new BasicEdge(origin, new Vertex(destinations.get(i)),
+                        Float.intBitsToFloat(costs.get(i)), getRequirement(requirement)));
+            }
+        }
+    }
+
+    /**
+     * Receives what a zip holds, so one reader can fill different graph types or stream into a pipeline.
+     */
+    public interface GraphSink {
+        void addVertex(int vertex);
+
+        void addEdge(Edge edge);
+    }
+
+    /**
+     * A {@link GraphSink} that takes whole decoded shards, letting version 3 zips be decoded in parallel.
+     */
+    private interface ShardSink extends GraphSink {
+        /**
+         * Adds decoded shards, all vertices before any edge.
+         */
+        default void addShards(List<Shard> shards) {
+            for (Shard shard : shards) {
+                for (int i = 0; i < shard.vertices.size(); i++) {
+                    addVertex(shard.vertices.get(i));
+                }
+            }
+            for (Shard shard : shards) {
+                shard.forEachEdge(this::addEdge);
+            }
+        }
+    }
 }
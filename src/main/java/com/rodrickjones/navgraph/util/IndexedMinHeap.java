@@ -0,0 +1,128 @@
+package com.rodrickjones.navgraph.util;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over the int elements {@code [0, capacity)} with decrease-key.
+ * Positions are tracked per element, so membership checks and key updates do not search the heap.
+ */
+public class IndexedMinHeap {
+    private final int[] heap;
+    private final double[] keys;
+    private final int[] positions;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int element) {
+        return positions[element] >= 0;
+    }
+
+    public double getKey(int element) {
+        return keys[positions[element]];
+    }
+
+    /**
+     * Inserts the element, or lowers its key if it is already queued with a higher one.
+     * @return true if the element was inserted or its key decreased
+     */
+    public boolean offer(int element, double key) {
+        int position = positions[element];
+        if (position < 0) {
+            position = size++;
+            heap[position] = element;
+            keys[position] = key;
+            positions[element] = position;
+            siftUp(position);
+            return true;
+        } else if (key < keys[position]) {
+            keys[position] = key;
+            siftUp(position);
+            return true;
+        }
+        return false;
+    }
+
+    public int peek() {
+        return heap[0];
+    }
+
+    public double peekKey() {
+        return keys[0];
+    }
+
+    public int poll() {
+        int element = heap[0];
+        positions[element] = -1;
+        size--;
+        if (size > 0) {
+            move(size, 0);
+            siftDown(0);
+        }
+        return element;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        int element = heap[position];
+        double key = keys[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, position);
+            position = parent;
+        }
+        heap[position] = element;
+        keys[position] = key;
+        positions[element] = position;
+    }
+
+    private void siftDown(int position) {
+        int element = heap[position];
+        double key = keys[position];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < size && keys[right] < keys[child]) {
+                child = right;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            move(child, position);
+            position = child;
+        }
+        heap[position] = element;
+        keys[position] = key;
+        positions[element] = position;
+    }
+
+    private void move(int from, int to) {
+        int element = heap[from];
+        heap[to] = element;
+        keys[to] = keys[from];
+        positions[element] = to;
+    }
+}
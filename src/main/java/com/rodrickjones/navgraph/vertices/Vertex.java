@@ -16,7 +16,7 @@ public class Vertex {
     }
 
     public Vertex(int hashCode) {
-        this(hashCode & 16383, hashCode >> 14 & 16383, hashCode >> 28 & 3);
+        this(getX(hashCode), getY(hashCode), getZ(hashCode));
     }
 
     public int getX() {
@@ -68,4 +68,16 @@ public class Vertex {
     public static int hashCode(int x, int y, int z) {
         return z << 28 | y << 14 | x;
     }
+
+    public static int getX(int hashCode) {
+        return hashCode & 16383;
+    }
+
+    public static int getY(int hashCode) {
+        return hashCode >> 14 & 16383;
+    }
+
+    public static int getZ(int hashCode) {
+        return hashCode >> 28 & 3;
+    }
 }
@@ -0,0 +1,155 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.pathfinding.Hierarchical;
+import com.rodrickjones.navgraph.pathfinding.Path;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GraphPatchTest {
+    private static final int SIZE = 192;
+
+    private static final Requirement KEY = new Requirement() {
+        @Override
+        public <R extends RequirementContext> boolean isMet(R context) {
+            return ((KeyContext) context).hasKey;
+        }
+
+        @Override
+        public int getType() {
+            return 99;
+        }
+
+        @Override
+        public String toString() {
+            return "Key";
+        }
+    };
+
+    /**
+     * A grid with random obstacles, where some edges are gated in one direction only.
+     */
+    private static HierarchicalGraph createGraph() {
+        Random random = new Random(1);
+        HierarchicalGraph graph = new HierarchicalGraph();
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (random.nextInt(8) != 0) {
+                    graph.addVertex(new Vertex(x, y, 0));
+                }
+            }
+        }
+        int[][] directions = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+        for (Vertex vertex : new ArrayList<>(graph.getVertices())) {
+            for (int[] direction : directions) {
+                Vertex neighbour = graph.getVertex(vertex.getX() + direction[0], vertex.getY() + direction[1], 0);
+                if (neighbour != null) {
+                    graph.addEdge(new BasicEdge(vertex, neighbour, 1, random.nextInt(50) == 0 ? KEY : null));
+                }
+            }
+        }
+        graph.setLevelSizes(128);
+        graph.indexIncomingEdges();
+        graph.compile();
+        return graph;
+    }
+
+    /**
+     * A wall across the border of two regions, and a gated edge replacing a free one.
+     */
+    private static GraphPatch createPatch(HierarchicalGraph graph) {
+        GraphPatch patch = new GraphPatch();
+        for (int y = 40; y < 90; y++) {
+            Vertex vertex = graph.getVertex(64, y, 0);
+            if (vertex != null) {
+                patch.removeVertex(vertex);
+            }
+        }
+        for (Vertex vertex : graph.getVertices()) {
+            Collection<Edge> edges = graph.getEdges(vertex);
+            if (vertex.getX() > 130 && edges != null && !edges.isEmpty()) {
+                Edge edge = edges.iterator().next();
+                if (edge.getRequirement() == null) {
+                    patch.removeEdge(edge);
+                    patch.addEdge(new BasicEdge(edge.getOrigin(), edge.getDestination(), 5, KEY));
+                    break;
+                }
+            }
+        }
+        return patch;
+    }
+
+    private static HierarchicalGraph copy(Graph source) {
+        HierarchicalGraph graph = new HierarchicalGraph();
+        source.getVertices().forEach(graph::addVertex);
+        for (Vertex vertex : source.getVertices()) {
+            Collection<Edge> edges = source.getEdges(vertex);
+            if (edges != null) {
+                edges.forEach(graph::addEdge);
+            }
+        }
+        graph.setLevelSizes(128);
+        graph.compile();
+        return graph;
+    }
+
+    @Test
+    public void patchedHierarchyMatchesFreshCompile() throws IOException {
+        HierarchicalGraph graph = createGraph();
+        long checksum = graph.getChecksum();
+        HierarchicalGraph patched = graph.withPatch(createPatch(graph));
+        HierarchicalGraph fresh = copy(patched);
+        assertEquals(fresh.getChecksum(), patched.getChecksum());
+        assertArrayEquals(hierarchyBytes(fresh), hierarchyBytes(patched));
+        //The original shares its adjacency with the patched graph, but must not see the patch
+        assertEquals(checksum, graph.getChecksum());
+        assertNotEquals(checksum, patched.getChecksum());
+
+        Random random = new Random(2);
+        List<Vertex> vertices = new ArrayList<>(patched.getVertices());
+        for (int i = 0; i < 50; i++) {
+            Vertex origin = vertices.get(random.nextInt(vertices.size()));
+            Vertex destination = vertices.get(random.nextInt(vertices.size()));
+            KeyContext context = new KeyContext(random.nextBoolean());
+            Path expected = new Hierarchical(fresh).findPath(origin, Collections.singleton(destination), context);
+            Path actual = new Hierarchical(patched).findPath(origin, Collections.singleton(destination), context);
+            assertEquals(expected == null, actual == null);
+            if (expected != null) {
+                assertEquals(expected.getCost(), actual.getCost(), 0);
+            }
+        }
+    }
+
+    private static byte[] hierarchyBytes(HierarchicalGraph graph) throws IOException {
+        File file = File.createTempFile("graph", ".hg");
+        try {
+            graph.writeHierarchy(file);
+            return Files.readAllBytes(file.toPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static class KeyContext implements RequirementContext {
+        private final boolean hasKey;
+
+        KeyContext(boolean hasKey) {
+            this.hasKey = hasKey;
+        }
+
+        @Override
+        public void writeToDataStream(DataOutputStream out) {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.rodrickjones.navgraph;
+
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.edges.EdgeReader;
+import com.rodrickjones.navgraph.pathfinding.CompactDijkstras;
+import com.rodrickjones.navgraph.pathfinding.Path;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.requirements.RequirementReader;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedGraphTest {
+    private static final int SIZE = 100;
+
+    private static final Requirement KEY = new Requirement() {
+        @Override
+        public <R extends RequirementContext> boolean isMet(R context) {
+            return false;
+        }
+
+        @Override
+        public int getType() {
+            return 99;
+        }
+
+        @Override
+        public String toString() {
+            return "Key";
+        }
+    };
+
+    /**
+     * Two planes of a grid with random obstacles and costs, joined by stairs, where some edges are gated.
+     */
+    private static SimpleGraph createGraph() {
+        Random random = new Random(1);
+        SimpleGraph graph = new SimpleGraph();
+        for (int z = 0; z < 2; z++) {
+            for (int x = 0; x < SIZE; x++) {
+                for (int y = 0; y < SIZE; y++) {
+                    if (random.nextInt(8) != 0) {
+                        graph.addVertex(new Vertex(x, y, z));
+                    }
+                }
+            }
+        }
+        int[][] directions = {{1, 0, 0}, {0, 1, 0}, {-1, 0, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        for (Vertex vertex : new ArrayList<>(graph.getVertices())) {
+            for (int[] direction : directions) {
+                Vertex neighbour = graph.getVertex(vertex.getX() + direction[0], vertex.getY() + direction[1], vertex.getZ() + direction[2]);
+                if (neighbour != null && (direction[2] == 0 || random.nextInt(20) == 0)) {
+                    float cost = random.nextInt(4) == 0 ? 1 + random.nextInt(100) / 10f : 1;
+                    graph.addEdge(new BasicEdge(vertex, neighbour, cost, random.nextInt(30) == 0 ? KEY : null));
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @return every vertex and edge of the graph, including costs and requirements, in a stable order
+     */
+    private static List<String> describe(Graph graph) {
+        List<String> lines = new ArrayList<>();
+        for (Vertex vertex : graph.getVertices()) {
+            lines.add("v " + vertex);
+            Collection<Edge> edges = graph.getEdges(vertex);
+            if (edges == null) {
+                continue;
+            }
+            for (Edge edge : edges) {
+                lines.add("e " + edge.getOrigin() + " " + edge.getDestination() + " " + edge.getCost() + " " + edge.getRequirement());
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void readsBackEqual() throws IOException {
+        SimpleGraph graph = createGraph();
+        CompactGraph compact = new CompactGraph(graph);
+        File file = File.createTempFile("graph", ".mapped");
+        try {
+            MappedGraph.writeToFile(compact, file);
+            assertTrue(MappedGraph.isMappedGraph(file));
+            RequirementReader requirementReader = new RequirementReader();
+            requirementReader.registerParser(KEY.getType(), in -> KEY);
+            MappedGraph mapped = MappedGraph.readFromFile(file, EdgeReader.getDefault(), requirementReader);
+            assertEquals(graph.getVertexCount(), mapped.getVertexCount());
+            assertEquals(graph.getEdgeCount(), mapped.getEdgeCount());
+            assertEquals(describe(graph), describe(mapped));
+
+            Random random = new Random(2);
+            CompactDijkstras expected = new CompactDijkstras(compact);
+            CompactDijkstras actual = new CompactDijkstras(mapped);
+            List<Vertex> vertices = new ArrayList<>(graph.getVertices());
+            for (int i = 0; i < 50; i++) {
+                Vertex origin = vertices.get(random.nextInt(vertices.size()));
+                Vertex destination = vertices.get(random.nextInt(vertices.size()));
+                Path expectedPath = expected.findPath(origin, Collections.singleton(destination), null);
+                Path actualPath = actual.findPath(origin, Collections.singleton(destination), null);
+                assertEquals(expectedPath == null, actualPath == null);
+                if (expectedPath != null) {
+                    assertEquals(expectedPath.getCost(), actualPath.getCost(), 0);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("graph", ".mapped");
+        try {
+            assertFalse(MappedGraph.isMappedGraph(file));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.CompactGraph;
+import com.rodrickjones.navgraph.ContractionHierarchy;
+import com.rodrickjones.navgraph.SimpleGraph;
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContractionHierarchiesTest {
+    private static final int SIZE = 40;
+
+    private static final Requirement KEY = new Requirement() {
+        @Override
+        public <R extends RequirementContext> boolean isMet(R context) {
+            return ((KeyContext) context).hasKey;
+        }
+
+        @Override
+        public int getType() {
+            return 99;
+        }
+
+        @Override
+        public String toString() {
+            return "Key";
+        }
+    };
+
+    /**
+     * An 8-connected grid with random obstacles, where some straight edges are gated in one direction only.
+     */
+    private static SimpleGraph createGraph(Random random) {
+        SimpleGraph graph = new SimpleGraph();
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (random.nextInt(8) != 0) {
+                    graph.addVertex(new Vertex(x, y, 0));
+                }
+            }
+        }
+        int[][] directions = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}, {1, 1}, {-1, -1}, {1, -1}, {-1, 1}};
+        for (Vertex vertex : new ArrayList<>(graph.getVertices())) {
+            for (int[] direction : directions) {
+                Vertex neighbour = graph.getVertex(vertex.getX() + direction[0], vertex.getY() + direction[1], 0);
+                if (neighbour == null) {
+                    continue;
+                }
+                boolean diagonal = direction[0] != 0 && direction[1] != 0;
+                boolean gated = !diagonal && random.nextInt(30) == 0;
+                graph.addEdge(new BasicEdge(vertex, neighbour, diagonal ? 1.5f : 1, gated ? KEY : null));
+            }
+        }
+        return graph;
+    }
+
+    @Test
+    public void findsExactPathsOnGatedGrid() {
+        Random random = new Random(1);
+        SimpleGraph graph = createGraph(random);
+        CompactGraph compact = new CompactGraph(graph);
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(compact);
+        assertTrue(hierarchy.getCoreSize() > 0);
+        assertAgrees(compact, new ContractionHierarchies(compact, hierarchy), graph, random);
+    }
+
+    @Test
+    public void findsExactPathsWithHierarchyReadBack() throws IOException {
+        Random random = new Random(2);
+        SimpleGraph graph = createGraph(random);
+        CompactGraph compact = new CompactGraph(graph);
+        File file = File.createTempFile("graph", ".ch");
+        try {
+            ContractionHierarchy.build(compact).writeToFile(file);
+            ContractionHierarchy hierarchy = ContractionHierarchy.readFromFile(file, compact);
+            assertAgrees(compact, new ContractionHierarchies(compact, hierarchy), graph, random);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertAgrees(CompactGraph compact, PathfindingAlgorithm<?> algorithm, SimpleGraph graph, Random random) {
+        CompactDijkstras reference = new CompactDijkstras(compact);
+        List<Vertex> vertices = new ArrayList<>(graph.getVertices());
+        for (int i = 0; i < 100; i++) {
+            Vertex origin = vertices.get(random.nextInt(vertices.size()));
+            Vertex destination = vertices.get(random.nextInt(vertices.size()));
+            KeyContext context = new KeyContext(random.nextBoolean());
+            Path expected = reference.findPath(origin, Collections.singleton(destination), context);
+            Path actual = algorithm.findPath(origin, Collections.singleton(destination), context);
+            assertEquals(origin + " -> " + destination, expected == null, actual == null);
+            if (expected != null) {
+                assertEquals(origin + " -> " + destination, expected.getCost(), actual.getCost(), 1e-3);
+            }
+        }
+    }
+
+    private static class KeyContext implements RequirementContext {
+        private final boolean hasKey;
+
+        KeyContext(boolean hasKey) {
+            this.hasKey = hasKey;
+        }
+
+        @Override
+        public void writeToDataStream(DataOutputStream out) {
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.HierarchicalGraph;
+import com.rodrickjones.navgraph.Reachability;
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class HierarchicalTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 128;
+    private static final int WALL = 300;
+    private static final int DOOR = 100;
+    private static final int GAP = 10;
+
+    private static final Requirement KEY = new Requirement() {
+        @Override
+        public <R extends RequirementContext> boolean isMet(R context) {
+            return ((KeyContext) context).hasKey;
+        }
+
+        @Override
+        public int getType() {
+            return 99;
+        }
+
+        @Override
+        public String toString() {
+            return "Key";
+        }
+    };
+
+    private final Vertex origin = new Vertex(5, DOOR, 0);
+    private final Vertex destination = new Vertex(600, DOOR, 0);
+
+    /**
+     * A grid split by a wall inside a cluster holding neither end, crossed by a gated door in one region and,
+     * if {@code gap} is set, by a free gap in the region below, otherwise by a free edge back towards the origin only.
+     */
+    private static HierarchicalGraph createGraph(boolean gap) {
+        HierarchicalGraph graph = new HierarchicalGraph();
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                graph.addVertex(new Vertex(x, y, 0));
+            }
+        }
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                Vertex vertex = new Vertex(x, y, 0);
+                if (y + 1 < HEIGHT) {
+                    link(graph, vertex, new Vertex(x, y + 1, 0), null);
+                }
+                if (x + 1 < WIDTH) {
+                    if (x + 1 != WALL) {
+                        link(graph, vertex, new Vertex(x + 1, y, 0), null);
+                    } else if (y == DOOR) {
+                        link(graph, vertex, new Vertex(x + 1, y, 0), KEY);
+                    } else if (y == GAP) {
+                        if (gap) {
+                            link(graph, vertex, new Vertex(x + 1, y, 0), null);
+                        } else {
+                            graph.addEdge(new BasicEdge(new Vertex(x + 1, y, 0), vertex, 1, null));
+                        }
+                    }
+                }
+            }
+        }
+        graph.setLevelSizes(128, 256);
+        graph.compile();
+        return graph;
+    }
+
+    /**
+     * An open grid whose region borders inside each level 1 cluster are crossed by a gated door every
+     * {@code doorSpacing} rows, or not at all if it is 0.
+     */
+    private static HierarchicalGraph createGrid(int doorSpacing) {
+        HierarchicalGraph graph = new HierarchicalGraph();
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                graph.addVertex(new Vertex(x, y, 0));
+            }
+        }
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                Vertex vertex = new Vertex(x, y, 0);
+                if (y + 1 < HEIGHT) {
+                    link(graph, vertex, new Vertex(x, y + 1, 0), null);
+                }
+                if (x + 1 < WIDTH) {
+                    boolean door = doorSpacing > 0 && (x + 1) % 128 == 64 && y % doorSpacing == 0;
+                    link(graph, vertex, new Vertex(x + 1, y, 0), door ? KEY : null);
+                }
+            }
+        }
+        graph.setLevelSizes(128, 256);
+        graph.compile();
+        return graph;
+    }
+
+    private static void link(HierarchicalGraph graph, Vertex a, Vertex b, Requirement requirement) {
+        graph.addEdge(new BasicEdge(a, b, 1, requirement));
+        graph.addEdge(new BasicEdge(b, a, 1, requirement));
+    }
+
+    private HierarchicalGraph gated;
+    private HierarchicalGraph walled;
+
+    @Before
+    public void setUp() {
+        gated = createGraph(true);
+        walled = createGraph(false);
+    }
+
+    @Test
+    public void usesGatedCrossingInsideUpperCluster() {
+        assertAgrees(gated, new KeyContext(true));
+        assertAgrees(walled, new KeyContext(true));
+    }
+
+    @Test
+    public void avoidsGatedCrossingWhenUnmet() {
+        assertAgrees(gated, new KeyContext(false));
+        assertNull(new Hierarchical(walled).findPath(origin, Collections.singleton(destination), new KeyContext(false)));
+        assertNull(new AStar(walled).findPath(origin, Collections.singleton(destination), new KeyContext(false)));
+    }
+
+    @Test
+    public void cachesOnlyConfirmedNoPath() {
+        Hierarchical hierarchical = new Hierarchical(walled);
+        Reachability reachability = walled.getReachability();
+        assertNull(hierarchical.findPath(origin, Collections.singleton(destination), new KeyContext(false)));
+        assertEquals(0, reachability.getCacheHits());
+        assertNull(hierarchical.findPath(origin, Collections.singleton(destination), new KeyContext(false)));
+        assertEquals(1, reachability.getCacheHits());
+        assertNotNull(hierarchical.findPath(origin, Collections.singleton(destination), new KeyContext(true)));
+        assertEquals(1, reachability.getCacheHits());
+    }
+
+    @Test
+    public void keepsGatedCrossingsOutOfUpperLevels() throws IOException {
+        HierarchicalGraph free = createGrid(0);
+        HierarchicalGraph doors = createGrid(4);
+        //Every door is inside a level 1 cluster, so the top level should not grow
+        assertEquals(free.getPortalCount(2), doors.getPortalCount(2));
+        File freeFile = File.createTempFile("graph", ".hg");
+        File doorsFile = File.createTempFile("graph", ".hg");
+        try {
+            free.writeHierarchy(freeFile);
+            doors.writeHierarchy(doorsFile);
+            //Entrances of level 0 and the clusters of level 1 still grow with the doors, but only within their cluster
+            assertTrue("hierarchy grew from " + freeFile.length() + " to " + doorsFile.length() + " bytes",
+                    doorsFile.length() < freeFile.length() * 4);
+        } finally {
+            freeFile.delete();
+            doorsFile.delete();
+        }
+    }
+
+    @Test
+    public void crossesRegionBorderInOneStep() {
+        //Far from the middle of the border, where the representative portal sits
+        Vertex from = new Vertex(63, 5, 0);
+        Vertex to = new Vertex(64, 5, 0);
+        Path path = new Hierarchical(gated).findPath(from, Collections.singleton(to), new KeyContext(false));
+        assertNotNull(path);
+        assertEquals(1, path.getCost(), 0);
+        path = new Hierarchical(gated).findPath(to, Collections.singleton(new Vertex(63, 6, 0)), new KeyContext(false));
+        assertNotNull(path);
+        assertEquals(2, path.getCost(), 0);
+    }
+
+    private void assertAgrees(HierarchicalGraph graph, KeyContext context) {
+        Path expected = new Dijkstras(graph).findPath(origin, Collections.singleton(destination), context);
+        Path actual = new Hierarchical(graph).findPath(origin, Collections.singleton(destination), context);
+        assertNotNull(expected);
+        assertNotNull(actual);
+        //Portals sit on representative crossings, so the hierarchical route may be slightly longer but never detours
+        assertTrue("expected " + expected.getCost() + " but was " + actual.getCost(),
+                actual.getCost() <= expected.getCost() * 1.05);
+    }
+
+    private static class KeyContext implements RequirementContext {
+        private final boolean hasKey;
+
+        KeyContext(boolean hasKey) {
+            this.hasKey = hasKey;
+        }
+
+        @Override
+        public void writeToDataStream(DataOutputStream out) {
+        }
+    }
+}
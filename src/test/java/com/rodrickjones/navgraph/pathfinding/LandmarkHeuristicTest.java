@@ -0,0 +1,71 @@
+package com.rodrickjones.navgraph.pathfinding;
+
+import com.rodrickjones.navgraph.CompactGraph;
+import com.rodrickjones.navgraph.SimpleGraph;
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LandmarkHeuristicTest {
+    private static final int SIZE = 48;
+
+    /**
+     * A grid with random costs, where a cheaper route is often found to a vertex already in the frontier.
+     */
+    private static SimpleGraph createGraph(Random random) {
+        SimpleGraph graph = new SimpleGraph();
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                graph.addVertex(new Vertex(x, y, 0));
+            }
+        }
+        int[][] directions = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}, {1, 1}, {-1, -1}, {1, -1}, {-1, 1}};
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int[] direction : directions) {
+                    int nx = x + direction[0];
+                    int ny = y + direction[1];
+                    if (nx >= 0 && ny >= 0 && nx < SIZE && ny < SIZE) {
+                        graph.addEdge(new BasicEdge(new Vertex(x, y, 0), new Vertex(nx, ny, 0), 1 + random.nextFloat() * 3, null));
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    @Test
+    public void findsExactPathsWithLandmarks() {
+        Random random = new Random(1);
+        SimpleGraph graph = createGraph(random);
+        CompactGraph compact = new CompactGraph(graph);
+        LandmarkHeuristic landmarks = LandmarkHeuristic.build(compact, 4);
+        CompactDijkstras reference = new CompactDijkstras(compact);
+        AStar alt = new AStar(graph, landmarks);
+        CompactAStar compactAlt = new CompactAStar(compact, landmarks);
+        List<Vertex> vertices = new ArrayList<>(graph.getVertices());
+        for (int i = 0; i < 100; i++) {
+            Vertex origin = vertices.get(random.nextInt(vertices.size()));
+            Vertex destination = vertices.get(random.nextInt(vertices.size()));
+            Path expected = reference.findPath(origin, Collections.singleton(destination), null);
+            assertNotNull(expected);
+            assertEquals(expected.getCost(), alt.findPath(origin, Collections.singleton(destination), null).getCost(), 1e-3);
+            assertEquals(expected.getCost(), compactAlt.findPath(origin, Collections.singleton(destination), null).getCost(), 1e-3);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLandmarksOfAnotherGraph() {
+        SimpleGraph graph = createGraph(new Random(1));
+        SimpleGraph other = new SimpleGraph();
+        other.addVertex(new Vertex(0, 0, 0));
+        new CompactAStar(new CompactGraph(graph), LandmarkHeuristic.build(new CompactGraph(other), 1));
+    }
+}
@@ -0,0 +1,168 @@
+package com.rodrickjones.navgraph.util;
+
+import com.rodrickjones.navgraph.CompactGraph;
+import com.rodrickjones.navgraph.Graph;
+import com.rodrickjones.navgraph.SimpleGraph;
+import com.rodrickjones.navgraph.edges.BasicEdge;
+import com.rodrickjones.navgraph.edges.Edge;
+import com.rodrickjones.navgraph.edges.EdgeReader;
+import com.rodrickjones.navgraph.requirements.Requirement;
+import com.rodrickjones.navgraph.requirements.RequirementContext;
+import com.rodrickjones.navgraph.requirements.RequirementReader;
+import com.rodrickjones.navgraph.vertices.Vertex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class GraphIOTest {
+    private static final int SIZE = 150;
+
+    private static final Requirement KEY = new Requirement() {
+        @Override
+        public <R extends RequirementContext> boolean isMet(R context) {
+            return false;
+        }
+
+        @Override
+        public int getType() {
+            return 99;
+        }
+
+        @Override
+        public String toString() {
+            return "Key";
+        }
+    };
+
+    /**
+     * Two planes of a grid with random obstacles and costs, joined by stairs, where some edges are gated.
+     */
+    private static SimpleGraph createGraph() {
+        Random random = new Random(1);
+        SimpleGraph graph = new SimpleGraph();
+        for (int z = 0; z < 2; z++) {
+            for (int x = 0; x < SIZE; x++) {
+                for (int y = 0; y < SIZE; y++) {
+                    if (random.nextInt(8) != 0) {
+                        graph.addVertex(new Vertex(x, y, z));
+                    }
+                }
+            }
+        }
+        int[][] directions = {{1, 0, 0}, {0, 1, 0}, {-1, 0, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+        for (Vertex vertex : new ArrayList<>(graph.getVertices())) {
+            for (int[] direction : directions) {
+                Vertex neighbour = graph.getVertex(vertex.getX() + direction[0], vertex.getY() + direction[1], vertex.getZ() + direction[2]);
+                if (neighbour != null && (direction[2] == 0 || random.nextInt(20) == 0)) {
+                    float cost = random.nextInt(4) == 0 ? 1 + random.nextInt(100) / 10f : 1;
+                    graph.addEdge(new BasicEdge(vertex, neighbour, cost, random.nextInt(30) == 0 ? KEY : null));
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @return every vertex and edge of the graph, including costs and requirements, in a stable order
+     */
+    static List<String> describe(Graph graph) {
+        List<String> lines = new ArrayList<>();
+        for (Vertex vertex : graph.getVertices()) {
+            lines.add("v " + vertex);
+            Collection<Edge> edges = graph.getEdges(vertex);
+            if (edges == null) {
+                continue;
+            }
+            for (Edge edge : edges) {
+                lines.add("e " + edge.getOrigin() + " " + edge.getDestination() + " " + edge.getCost() + " " + edge.getRequirement());
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    static RequirementReader createRequirementReader() {
+        RequirementReader reader = new RequirementReader();
+        reader.registerParser(KEY.getType(), in -> KEY);
+        return reader;
+    }
+
+    private SimpleGraph graph;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = createGraph();
+        file = File.createTempFile("graph", ".zip");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void assertRoundTrip(int version) throws IOException {
+        assertEquals(version, GraphIO.readVersion(file));
+        SimpleGraph read = GraphIO.readFromZip(file, SimpleGraph.class, EdgeReader.getDefault(), createRequirementReader());
+        assertNotNull(read);
+        assertEquals(graph.getVertexCount(), read.getVertexCount());
+        assertEquals(graph.getEdgeCount(), read.getEdgeCount());
+        assertEquals(describe(graph), describe(read));
+        CompactGraph compact = GraphIO.readCompactFromZip(file, EdgeReader.getDefault(), createRequirementReader());
+        assertNotNull(compact);
+        assertEquals(describe(graph), describe(compact));
+    }
+
+    @Test
+    public void readsVersion1BackEqual() throws IOException {
+        GraphIO.writeToZip(graph, file, 1, 1);
+        assertRoundTrip(1);
+    }
+
+    @Test
+    public void readsVersion2BackEqual() throws IOException {
+        GraphIO.writeToZip(graph, file, 1, 2);
+        assertRoundTrip(2);
+    }
+
+    @Test
+    public void readsVersion3BackEqual() throws IOException {
+        GraphIO.writeToZip(graph, file, 1, 3);
+        assertRoundTrip(3);
+        GraphIO.writeToZip(graph, file, 1, 3, 1);
+        assertRoundTrip(3);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            SimpleGraph read = GraphIO.readFromZip(file, SimpleGraph.class, EdgeReader.getDefault(), createRequirementReader(), pool);
+            assertNotNull(read);
+            assertEquals(describe(graph), describe(read));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void readsVersion3WithMoreShardsThanVerticesBackEqual() throws IOException {
+        SimpleGraph small = new SimpleGraph();
+        Vertex a = new Vertex(1, 2, 0);
+        Vertex b = new Vertex(70, 2, 1);
+        small.addVertex(a);
+        small.addVertex(b);
+        small.addEdge(new BasicEdge(a, b, 2.5f, KEY));
+        GraphIO.writeToZip(small, file, 1, 3, GraphIO.DEFAULT_SHARD_COUNT);
+        SimpleGraph read = GraphIO.readFromZip(file, SimpleGraph.class, EdgeReader.getDefault(), createRequirementReader());
+        assertNotNull(read);
+        assertEquals(describe(small), describe(read));
+    }
+}